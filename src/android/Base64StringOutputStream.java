@@ -0,0 +1,149 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An OutputStream that Base64 encodes (without line wrapping or a data: prefix) everything
+ * written to it into a single ASCII buffer.
+ *
+ * Compressing a bitmap straight into this stream means the compressed bytes never exist on the
+ * heap on their own: the only buffer is the encoded one, which is about 4/3 of the compressed
+ * size. That is an estimate from the buffer sizes, not a measured peak. When the expected size
+ * passed in is too small, the buffer is copied into one half as large again, so both are held
+ * for a moment. toString copies the buffer once more into the String sent back to JavaScript.
+ */
+public class Base64StringOutputStream extends OutputStream {
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte PAD = '=';
+
+    private byte[] buffer;
+    private int count;
+    private final byte[] pending = new byte[3];  // Input bytes not yet forming a full 3 byte group
+    private int pendingCount;
+    private boolean closed;
+
+    /**
+     * @param expectedInputSize the expected number of bytes that will be written, used to size the buffer
+     */
+    public Base64StringOutputStream(int expectedInputSize) {
+        this.buffer = new byte[encodedLength(Math.max(expectedInputSize, 3))];
+    }
+
+    /**
+     * @param inputSize a number of input bytes
+     * @return the number of Base64 characters needed to encode them, including padding
+     */
+    public static int encodedLength(int inputSize) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, ((long) inputSize + 2) / 3 * 4);
+    }
+
+    @Override
+    public void write(int b) {
+        pending[pendingCount++] = (byte) b;
+        if (pendingCount == 3) {
+            ensureCapacity(4);
+            encodeGroup(pending[0], pending[1], pending[2]);
+            pendingCount = 0;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        int end = off + len;
+
+        // Complete a partially filled group first
+        while (pendingCount > 0 && off < end) {
+            write(b[off++]);
+        }
+
+        int groups = (end - off) / 3;
+        ensureCapacity(groups * 4);
+        for (int i = 0; i < groups; i++) {
+            encodeGroup(b[off], b[off + 1], b[off + 2]);
+            off += 3;
+        }
+
+        while (off < end) {
+            pending[pendingCount++] = b[off++];
+        }
+    }
+
+    /**
+     * Encodes any remaining input with padding. No more bytes can be written afterwards.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (pendingCount == 0) {
+            return;
+        }
+
+        ensureCapacity(4);
+        int b0 = pending[0] & 0xff;
+        int b1 = pendingCount > 1 ? pending[1] & 0xff : 0;
+        buffer[count++] = ALPHABET[b0 >> 2];
+        buffer[count++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+        buffer[count++] = pendingCount > 1 ? ALPHABET[(b1 & 0x0f) << 2] : PAD;
+        buffer[count++] = PAD;
+        pendingCount = 0;
+    }
+
+    /**
+     * @return the number of Base64 characters produced so far
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Closes the stream and returns the encoded data.
+     *
+     * @return the Base64 encoded string
+     */
+    @Override
+    public String toString() {
+        close();
+        return new String(buffer, 0, count, StandardCharsets.US_ASCII);
+    }
+
+    private void encodeGroup(byte b0, byte b1, byte b2) {
+        int bits = ((b0 & 0xff) << 16) | ((b1 & 0xff) << 8) | (b2 & 0xff);
+        buffer[count++] = ALPHABET[(bits >> 18) & 0x3f];
+        buffer[count++] = ALPHABET[(bits >> 12) & 0x3f];
+        buffer[count++] = ALPHABET[(bits >> 6) & 0x3f];
+        buffer[count++] = ALPHABET[bits & 0x3f];
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra <= buffer.length) {
+            return;
+        }
+        // Grow by half rather than doubling, the initial estimate is usually close
+        int newLength = Math.max(count + extra, buffer.length + (buffer.length >> 1));
+        buffer = Arrays.copyOf(buffer, newLength);
+    }
+}
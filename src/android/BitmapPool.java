@@ -0,0 +1,231 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable bitmaps that can be reused from one capture to the next, either as the
+ * inBitmap of a decode or as the destination of a transform.
+ *
+ * Bitmaps are bucketed by config and allocation size. A request is served by the smallest pooled
+ * bitmap that is large enough, as long as it doesn't waste more than MAX_SIZE_MULTIPLE times the
+ * memory needed. The pool holds at most maxBytes; beyond that the least recently returned
+ * bitmaps are recycled first.
+ */
+public class BitmapPool {
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final long maxBytes;
+    private long currentBytes;
+
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> buckets =
+            new EnumMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>>(Bitmap.Config.class);
+    private final ArrayList<Bitmap> lru = new ArrayList<Bitmap>();  // Least recently returned first
+
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    /**
+     * @param maxBytes the maximum number of bytes of pixel memory held by the pool
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Takes a bitmap out of the pool and reconfigures it to the given size.
+     * The pixels of the returned bitmap are undefined.
+     *
+     * @return a mutable bitmap of exactly width x height, or null if none is available
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int size = byteCount(width, height, config);
+        Bitmap bitmap = take(size, config);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            bitmap.reconfigure(width, height, config);
+        } catch (IllegalArgumentException e) {
+            bitmap.recycle();
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Sets options.inBitmap and options.inMutable so the decode described by the given options
+     * reuses a pooled bitmap. The options must hold the bounds of the source and the sample size.
+     * If the decode then fails with an IllegalArgumentException it should be retried after
+     * clearing options.inBitmap.
+     */
+    public synchronized void prepareDecode(BitmapFactory.Options options) {
+        options.inMutable = true;
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+
+        // Decoders may round the sample size down to a power of two, so size for the larger result
+        int sampleSize = Integer.highestOneBit(Math.max(1, options.inSampleSize));
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        options.inBitmap = take(byteCount(width, height, config), config);
+    }
+
+    /**
+     * Returns a bitmap to the pool once it is no longer used. Bitmaps that can't be reused are
+     * recycled instead.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(bitmap.getConfig());
+        if (sizes == null) {
+            sizes = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+            buckets.put(bitmap.getConfig(), sizes);
+        }
+        ArrayDeque<Bitmap> bucket = sizes.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            sizes.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        lru.add(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Recycles pooled bitmaps until the pool holds at most the given number of bytes.
+     */
+    public synchronized void trimToSize(long size) {
+        while (currentBytes > size && !lru.isEmpty()) {
+            Bitmap bitmap = lru.get(0);
+            remove(bitmap);
+            bitmap.recycle();
+            evictions++;
+        }
+    }
+
+    /**
+     * Releases pooled bitmaps in response to ComponentCallbacks2.onTrimMemory.
+     *
+     * @param level the trim level passed to onTrimMemory
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of bytes of pixel memory currently held by the pool
+     */
+    public synchronized long getCurrentSize() {
+        return currentBytes;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes the smallest pooled bitmap that can hold the given number of bytes from the pool.
+     * Nothing is counted or moved until the bitmap is known to fit, so a bitmap that doesn't is
+     * left where it is in the LRU order.
+     */
+    private Bitmap take(int size, Bitmap.Config config) {
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+        Integer key = sizes != null ? sizes.ceilingKey(size) : null;
+        Bitmap bitmap = key != null && key <= (long) size * MAX_SIZE_MULTIPLE ? sizes.get(key).peek() : null;
+        if (bitmap == null || bitmap.getAllocationByteCount() < size) {
+            misses++;
+            return null;
+        }
+        hits++;
+        remove(bitmap);
+        return bitmap;
+    }
+
+    private void remove(Bitmap bitmap) {
+        int size = bitmap.getAllocationByteCount();
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = buckets.get(bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = sizes.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            sizes.remove(size);
+        }
+        lru.remove(bitmap);
+        currentBytes -= size;
+    }
+
+    private static int byteCount(int width, int height, Bitmap.Config config) {
+        int bytesPerPixel;
+        if (config == Bitmap.Config.ALPHA_8) {
+            bytesPerPixel = 1;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            // Returned by ImageDecoder for wide gamut and 16 bit sources
+            bytesPerPixel = 8;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            bytesPerPixel = 2;
+        } else {
+            bytesPerPixel = 4;
+        }
+        return width * height * bytesPerPixel;
+    }
+}
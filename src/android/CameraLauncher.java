@@ -19,31 +19,40 @@
 package org.apache.cordova.camera;
 
 import android.Manifest;
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.PendingIntent;
 import android.app.RecoverableSecurityException;
 import android.content.ActivityNotFoundException;
+import android.content.ClipData;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.IntentSender;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.media.ExifInterface;
-import android.media.MediaScannerConnection;
-import android.media.MediaScannerConnection.MediaScannerConnectionClient;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Trace;
 import android.provider.MediaStore;
 import androidx.core.content.FileProvider;
-import android.util.Base64;
 
 import org.apache.cordova.BuildHelper;
 import org.apache.cordova.CallbackContext;
@@ -53,6 +62,7 @@ import org.apache.cordova.PermissionHelper;
 import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -60,16 +70,30 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class launches the camera view, allows the user to take a picture, closes the camera view,
  * and returns the captured image.  When the camera view is closed, the screen displayed before
  * the camera view was shown is redisplayed.
  */
-public class CameraLauncher extends CordovaPlugin implements MediaScannerConnectionClient {
+public class CameraLauncher extends CordovaPlugin {
 
     private static final int DATA_URL = 0;              // Return base64 encoded string
     private static final int FILE_URI = 1;              // Return file uri (content://media/external/images/media/2 for Android)
@@ -85,21 +109,28 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     private static final int JPEG = 0;                  // Take a picture of type JPEG
     private static final int PNG = 1;                   // Take a picture of type PNG
+    private static final int WEBP = 2;                  // Take a picture of type lossy WebP
+    private static final int WEBP_LOSSLESS = 3;         // Take a picture of type lossless WebP
+    private static final int HEIF = 4;                  // Take a picture of type HEIF, only written to files
     private static final String JPEG_TYPE = "jpg";
     private static final String PNG_TYPE = "png";
+    private static final String WEBP_TYPE = "webp";
+    private static final String HEIF_TYPE = "heic";
     private static final String JPEG_EXTENSION = "." + JPEG_TYPE;
     private static final String PNG_EXTENSION = "." + PNG_TYPE;
+    private static final String WEBP_EXTENSION = "." + WEBP_TYPE;
+    private static final String HEIF_EXTENSION = "." + HEIF_TYPE;
     private static final String PNG_MIME_TYPE = "image/png";
     private static final String JPEG_MIME_TYPE = "image/jpeg";
     private static final String HEIC_MIME_TYPE = "image/heic";
+    private static final String WEBP_MIME_TYPE = "image/webp";
     private static final String GET_PICTURE = "Get Picture";
     private static final String GET_VIDEO = "Get Video";
     private static final String GET_All = "Get All";
-    private static final String CROPPED_URI_KEY = "croppedUri";
-    private static final String IMAGE_URI_KEY = "imageUri";
-    private static final String IMAGE_FILE_PATH_KEY = "imageFilePath";
 
     private static final String TAKE_PICTURE_ACTION = "takePicture";
+    private static final String GET_PICTURES_ACTION = "getPictures";
+    private static final String GET_CACHE_STATS_ACTION = "getCacheStats";
 
     public static final int PERMISSION_DENIED_ERROR = 20;
     public static final int TAKE_PIC_SEC = 0;
@@ -112,30 +143,104 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     private static final String TIME_FORMAT = "yyyyMMdd_HHmmss";
 
-    private int mQuality;                   // Compression quality hint (0-100: 0=low quality & high compression, 100=compress of max quality)
-    private int targetWidth;                // desired width of the image
-    private int targetHeight;               // desired height of the image
-    private Uri imageUri;                   // Uri of captured image
-    private String imageFilePath;           // File where the image is stored
-    private int encodingType;               // Type of encoding to use
-    private int mediaType;                  // What type of media to retrieve
-    private int destType;                   // Source type (needs to be saved for the permission handling)
-    private int srcType;                    // Destination type (needs to be saved for permission handling)
-    private boolean saveToPhotoAlbum;       // Should the picture be saved to the device's photo album
-    private boolean correctOrientation;     // Should the pictures orientation be corrected
-    private boolean orientationCorrected;   // Has the picture's orientation been corrected
-    private boolean allowEdit;              // Should we allow the user to crop the image.
-
-    public CallbackContext callbackContext;
-    private int numPics;
-
-    private MediaScannerConnection conn;    // Used to update gallery app with newly-written files
-    private Uri scanMe;                     // Uri of image to be added to content store
-    private Uri croppedUri;
-    private String croppedFilePath;
-    private ExifHelper exifData;            // Exif data from source
+    private static final String DATA_URL_CHUNK_SIZE_PREFERENCE = "CameraDataUrlChunkSize";
+    private static final int DEFAULT_DATA_URL_CHUNK_SIZE = 256 * 1024;
+
+    private static final int MAX_WORKER_THREADS = 2;    // Results processed in parallel, each may hold full size bitmaps
+    private static final int MAX_PENDING_RESULTS = 4;   // Results queued behind the ones being processed
+    private static final long FULL_SIZE_PIXELS = 12000000L;  // Assumed size of an image picked without a target size
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final int TILE_STRIP_PIXELS = 1024 * 1024; // Decoded pixels per strip of a tiled decode
+    private static final int METADATA_CACHE_SIZE = 64;  // Picked images whose metadata is remembered
+    private static final long MEDIA_SCAN_IDLE_TIMEOUT = 5000;  // Milliseconds the media scanner stays connected once idle
+
+    private CameraRequest pendingRequest;   // Request waiting on a permission or an Activity result
+
+    private MediaScanQueue mediaScanQueue;  // Used to update gallery app with newly-written files
     private String applicationId;
     private Uri pendingDeleteMediaUri;
+    private BitmapPool bitmapPool;          // Bitmaps reused from one capture to the next
+    private ThreadPoolExecutor executor;    // Processes results off the UI thread
+    private ThreadPoolExecutor batchExecutor;   // Processes the images of a multiple selection
+    private Semaphore decodeMemory;         // Megabytes the images of a multiple selection may decode into at once
+    private int decodeMemoryLimit;
+    private ImageMetadataCache metadataCache;   // Metadata of picked images, by URI
+
+
+    // CordovaPlugin has no memory hooks, so listen on the application context instead
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            bitmapPool.trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            bitmapPool.clear();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+
+    // Cached metadata of an image is dropped as soon as the media store reports it changed. Other
+    // changes, such as the pictures this plugin adds, leave the rest of the cache alone
+    private final ContentObserver mediaObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri != null) {
+                metadataCache.invalidate(uri);
+            }
+        }
+    };
+
+    @Override
+    protected void pluginInitialize() {
+        this.applicationId = cordova.getContext().getPackageName();
+        this.applicationId = preferences.getString("applicationId", this.applicationId);
+
+        this.bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, Math.min(MAX_WORKER_THREADS, cores));
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_PENDING_RESULTS), newThreadFactory(LOG_TAG));
+        // A selection can be long, so every image is queued, and how many are decoded at once is
+        // limited by decodeMemory rather than by the number of threads
+        this.batchExecutor = new ThreadPoolExecutor(cores, cores, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), newThreadFactory(LOG_TAG + "-batch"));
+        this.decodeMemoryLimit = (int) Math.max(1, Runtime.getRuntime().maxMemory() / 4 / MEGABYTE);
+        this.decodeMemory = new Semaphore(decodeMemoryLimit);
+        cordova.getActivity().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+
+        this.mediaScanQueue = new MediaScanQueue(cordova.getActivity().getApplicationContext(), MEDIA_SCAN_IDLE_TIMEOUT);
+        this.metadataCache = new ImageMetadataCache(METADATA_CACHE_SIZE);
+        cordova.getActivity().getContentResolver().registerContentObserver(
+                MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, mediaObserver);
+    }
+
+    @Override
+    public void onDestroy() {
+        // Interrupt the results being processed and drop the queued ones, their callbacks are gone
+        executor.shutdownNow();
+        batchExecutor.shutdownNow();
+        cordova.getActivity().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        cordova.getActivity().getContentResolver().unregisterContentObserver(mediaObserver);
+        mediaScanQueue.close();
+        bitmapPool.clear();
+        metadataCache.clear();
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name + "-" + count.incrementAndGet());
+            }
+        };
+    }
 
     /**
      * Executes the request and returns PluginResult.
@@ -146,60 +251,35 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @return                  A PluginResult object with a status and message.
      */
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-        this.callbackContext = callbackContext;
-
-        this.applicationId = cordova.getContext().getPackageName();
-        this.applicationId = preferences.getString("applicationId", this.applicationId);
-
-        if (action.equals(TAKE_PICTURE_ACTION)) {
-            this.srcType = CAMERA;
-            this.destType = FILE_URI;
-            this.saveToPhotoAlbum = false;
-            this.targetHeight = 0;
-            this.targetWidth = 0;
-            this.encodingType = JPEG;
-            this.mediaType = PICTURE;
-            this.mQuality = 50;
-
-            //Take the values from the arguments if they're not already defined (this is tricky)
-            this.destType = args.getInt(1);
-            this.srcType = args.getInt(2);
-            this.mQuality = args.getInt(0);
-            this.targetWidth = args.getInt(3);
-            this.targetHeight = args.getInt(4);
-            this.encodingType = args.getInt(5);
-            this.mediaType = args.getInt(6);
-            this.allowEdit = args.getBoolean(7);
-            this.correctOrientation = args.getBoolean(8);
-            this.saveToPhotoAlbum = args.getBoolean(9);
-
-            // If the user specifies a 0 or smaller width/height
-            // make it -1 so later comparisons succeed
-            if (this.targetWidth < 1) {
-                this.targetWidth = -1;
-            }
-            if (this.targetHeight < 1) {
-                this.targetHeight = -1;
-            }
-
-            // We don't return full-quality PNG files. The camera outputs a JPEG
-            // so requesting it as a PNG provides no actual benefit
-            if (this.targetHeight == -1 && this.targetWidth == -1 && this.mQuality == 100 &&
-                    !this.correctOrientation && this.encodingType == PNG && this.srcType == CAMERA) {
-                this.encodingType = JPEG;
+        if (action.equals(GET_CACHE_STATS_ACTION)) {
+            callbackContext.success(getCacheStats());
+            return true;
+        }
+        if (action.equals(TAKE_PICTURE_ACTION) || action.equals(GET_PICTURES_ACTION)) {
+            // Every call gets its own request, so a new call never changes one still being processed
+            CameraRequest request = CameraRequest.fromArgs(args, callbackContext);
+            int srcType = request.getSrcType();
+
+            if (action.equals(GET_PICTURES_ACTION)) {
+                if (srcType == CAMERA) {
+                    callbackContext.error("Multiple selection is only supported for the photo library");
+                    return true;
+                }
+                request = request.withMultiple();
             }
 
             try {
-                if (this.srcType == CAMERA) {
-                    this.callTakePicture(destType, encodingType);
+                if (srcType == CAMERA) {
+                    this.callTakePicture(request);
                 }
-                else if ((this.srcType == PHOTOLIBRARY) || (this.srcType == SAVEDPHOTOALBUM)) {
+                else if ((srcType == PHOTOLIBRARY) || (srcType == SAVEDPHOTOALBUM)) {
                     // FIXME: Stop always requesting the permission
-                    String[] permissions = getPermissions(true, mediaType);
+                    String[] permissions = getPermissions(true, request.getMediaType());
                     if(!hasPermissions(permissions)) {
+                        this.pendingRequest = request;
                         PermissionHelper.requestPermissions(this, SAVE_TO_ALBUM_SEC, permissions);
                     } else {
-                        this.getImage(this.srcType, destType);
+                        this.getImage(request);
                     }
                 }
             }
@@ -224,6 +304,31 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     // LOCAL METHODS
     //--------------------------------------------------------------------------
 
+    /**
+     * @return the counters of the metadata cache and of the bitmap pool
+     * @throws JSONException
+     */
+    private JSONObject getCacheStats() throws JSONException {
+        JSONObject metadata = new JSONObject();
+        metadata.put("hits", metadataCache.getHitCount());
+        metadata.put("misses", metadataCache.getMissCount());
+        metadata.put("evictions", metadataCache.getEvictionCount());
+        metadata.put("size", metadataCache.getCurrentSize());
+        metadata.put("maxSize", metadataCache.getMaxSize());
+
+        JSONObject bitmaps = new JSONObject();
+        bitmaps.put("hits", bitmapPool.getHitCount());
+        bitmaps.put("misses", bitmapPool.getMissCount());
+        bitmaps.put("evictions", bitmapPool.getEvictionCount());
+        bitmaps.put("size", bitmapPool.getCurrentSize());
+        bitmaps.put("maxSize", bitmapPool.getMaxSize());
+
+        JSONObject stats = new JSONObject();
+        stats.put("metadataCache", metadata);
+        stats.put("bitmapPool", bitmaps);
+        return stats;
+    }
+
     private String[] getPermissions(boolean storageOnly, int mediaType) {
         if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             if (storageOnly) {
@@ -273,11 +378,10 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * or to display URI in an img tag
      *      img.src=result;
      *
-     * @param returnType        Set the type of image to return.
-     * @param encodingType           Compression quality hint (0-100: 0=low quality & high compression, 100=compress of max quality)
+     * @param request           The options of the call.
      */
-    public void callTakePicture(int returnType, int encodingType) {
-        String[] storagePermissions = getPermissions(true, mediaType);
+    public void callTakePicture(CameraRequest request) {
+        String[] storagePermissions = getPermissions(true, request.getMediaType());
         boolean saveAlbumPermission = hasPermissions(storagePermissions);
 
         boolean takePicturePermission = PermissionHelper.hasPermission(this, Manifest.permission.CAMERA);
@@ -306,30 +410,34 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         }
 
         if (takePicturePermission && saveAlbumPermission) {
-            takePicture(returnType, encodingType);
-        } else if (saveAlbumPermission) {
+            takePicture(request);
+            return;
+        }
+
+        this.pendingRequest = request;
+        if (saveAlbumPermission) {
             PermissionHelper.requestPermission(this, TAKE_PIC_SEC, Manifest.permission.CAMERA);
         } else if (takePicturePermission) {
             PermissionHelper.requestPermissions(this, TAKE_PIC_SEC, storagePermissions);
         } else {
-            PermissionHelper.requestPermissions(this, TAKE_PIC_SEC, getPermissions(false, mediaType));
+            PermissionHelper.requestPermissions(this, TAKE_PIC_SEC, getPermissions(false, request.getMediaType()));
         }
     }
 
-    public void takePicture(int returnType, int encodingType)
+    public void takePicture(CameraRequest request)
     {
-        // Save the number of images currently on disk for later
-        this.numPics = queryImgDB(whichContentStore()).getCount();
+        // Save the newest image currently on disk for later
+        request = request.withLatestImageId(queryLatestImageId(whichContentStore()));
 
         // Let's use the intent and see what happens
         Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
 
         // Specify file so that large image is captured and returned
-        File photo = createCaptureFile(encodingType);
-        this.imageFilePath = photo.getAbsolutePath();
-        this.imageUri = FileProvider.getUriForFile(cordova.getActivity(),
+        File photo = createCaptureFile(request.getEncodingType());
+        Uri imageUri = FileProvider.getUriForFile(cordova.getActivity(),
                 applicationId + ".cordova.plugin.camera.provider",
                 photo);
+        request = request.withImageFile(photo.getAbsolutePath(), imageUri);
         intent.putExtra(MediaStore.EXTRA_OUTPUT, imageUri);
         //We can write to this URI, this will hopefully allow us to write files to get to the next step
         intent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
@@ -339,7 +447,8 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             PackageManager mPm = this.cordova.getActivity().getPackageManager();
             if(intent.resolveActivity(mPm) != null)
             {
-                this.cordova.startActivityForResult((CordovaPlugin) this, intent, (CAMERA + 1) * 16 + returnType + 1);
+                this.pendingRequest = request;
+                this.cordova.startActivityForResult((CordovaPlugin) this, intent, (CAMERA + 1) * 16 + request.getDestType() + 1);
             }
             else
             {
@@ -352,12 +461,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
 
     /**
      * Create a file in the applications temporary directory based upon the supplied encoding.
+     * Every call returns a new file, so a capture never overwrites one that is still being processed.
      *
      * @param encodingType of the image to be taken
      * @return a File object pointing to the temporary picture
      */
     private File createCaptureFile(int encodingType) {
-        return createCaptureFile(encodingType, "");
+        return createCaptureFile(encodingType, ".Pic_" + System.currentTimeMillis());
     }
 
     /**
@@ -372,13 +482,11 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             fileName = ".Pic";
         }
 
-        if (encodingType == JPEG) {
-            fileName = fileName + JPEG_EXTENSION;
-        } else if (encodingType == PNG) {
-            fileName = fileName + PNG_EXTENSION;
-        } else {
+        String extension = getExtensionForEncodingType(encodingType);
+        if (extension == null) {
             throw new IllegalArgumentException("Invalid Encoding Type: " + encodingType);
         }
+        fileName = fileName + extension;
 
         return new File(getTempDirectoryPath(), fileName);
     }
@@ -387,19 +495,20 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     /**
      * Get image from photo library.
      *
-     * @param srcType           The album to get image from.
-     * @param returnType        Set the type of image to return.
+     * @param request           The options of the call, including the album to get image from.
      */
     // TODO: Images selected from SDCARD don't display correctly, but from CAMERA ALBUM do!
     // TODO: Images from kitkat filechooser not going into crop function
-    public void getImage(int srcType, int returnType) {
+    public void getImage(CameraRequest request) {
         Intent intent = new Intent();
         String title = GET_PICTURE;
-        croppedUri = null;
-        croppedFilePath = null;
-        if (this.mediaType == PICTURE) {
+        int mediaType = request.getMediaType();
+        int targetWidth = request.getTargetWidth();
+        int targetHeight = request.getTargetHeight();
+        request = request.withCroppedFile(null, null);
+        if (mediaType == PICTURE) {
             intent.setType("image/*");
-            if (this.allowEdit) {
+            if (request.isAllowEdit() && !request.isMultiple()) {
                 intent.setAction(Intent.ACTION_PICK);
                 intent.putExtra("crop", "true");
                 if (targetWidth > 0) {
@@ -413,19 +522,18 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                     intent.putExtra("aspectY", 1);
                 }
                 File croppedFile = createCaptureFile(JPEG);
-                croppedFilePath = croppedFile.getAbsolutePath();
-                croppedUri = Uri.fromFile(croppedFile);
-                intent.putExtra(MediaStore.EXTRA_OUTPUT, croppedUri);
+                request = request.withCroppedFile(croppedFile.getAbsolutePath(), Uri.fromFile(croppedFile));
+                intent.putExtra(MediaStore.EXTRA_OUTPUT, request.getCroppedUri());
             } else {
                 intent.setAction(Intent.ACTION_GET_CONTENT);
                 intent.addCategory(Intent.CATEGORY_OPENABLE);
             }
-        } else if (this.mediaType == VIDEO) {
+        } else if (mediaType == VIDEO) {
             intent.setType("video/*");
             title = GET_VIDEO;
             intent.setAction(Intent.ACTION_GET_CONTENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
-        } else if (this.mediaType == ALLMEDIA) {
+        } else if (mediaType == ALLMEDIA) {
             // I wanted to make the type 'image/*, video/*' but this does not work on all versions
             // of android so I had to go with the wildcard search.
             intent.setType("*/*");
@@ -433,9 +541,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             intent.setAction(Intent.ACTION_GET_CONTENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
         }
+        if (request.isMultiple()) {
+            intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        }
         if (this.cordova != null) {
+            this.pendingRequest = request;
             this.cordova.startActivityForResult((CordovaPlugin) this, Intent.createChooser(intent,
-                    new String(title)), (srcType + 1) * 16 + returnType + 1);
+                    new String(title)), (request.getSrcType() + 1) * 16 + request.getDestType() + 1);
         }
     }
 
@@ -444,7 +556,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      *
      * @param picUri
      */
-    private void performCrop(Uri picUri, int destType, Intent cameraIntent) {
+    private void performCrop(CameraRequest request, Uri picUri, Intent cameraIntent) {
+        int targetWidth = request.getTargetWidth();
+        int targetHeight = request.getTargetHeight();
         try {
             Intent cropIntent = new Intent("com.android.camera.action.CROP");
             // indicate image type and Uri
@@ -464,81 +578,175 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                 cropIntent.putExtra("aspectY", 1);
             }
             // create new file handle to get full resolution crop
-            croppedFilePath = createCaptureFile(this.encodingType, System.currentTimeMillis() + "").getAbsolutePath();
-            croppedUri = Uri.parse(croppedFilePath);
+            String croppedFilePath = createCaptureFile(request.getEncodingType(), System.currentTimeMillis() + "").getAbsolutePath();
+            CameraRequest cropRequest = request.withCroppedFile(croppedFilePath, Uri.parse(croppedFilePath));
             cropIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             cropIntent.addFlags(Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-            cropIntent.putExtra("output", croppedUri);
+            cropIntent.putExtra("output", cropRequest.getCroppedUri());
 
             // start the activity - we handle returning in onActivityResult
 
             if (this.cordova != null) {
+                this.pendingRequest = cropRequest;
                 this.cordova.startActivityForResult((CordovaPlugin) this,
-                        cropIntent, CROP_CAMERA + destType);
+                        cropIntent, CROP_CAMERA + request.getDestType());
             }
         } catch (ActivityNotFoundException anfe) {
             LOG.e(LOG_TAG, "Crop operation not supported on this device");
-            try {
-                processResultFromCamera(destType, cameraIntent);
-            } catch (IOException e) {
-                e.printStackTrace();
-                LOG.e(LOG_TAG, "Unable to write to file");
+            processResultFromCameraInBackground(request, cameraIntent);
+        }
+    }
+
+    /**
+     * Queues processResultFromCamera on the plugin's executor, so that decoding, compressing and
+     * rewriting the EXIF data never block the UI thread.
+     *
+     * @param request           The request the image was captured for
+     * @param intent            An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
+     */
+    private void processResultFromCameraInBackground(final CameraRequest request, final Intent intent) {
+        runInBackground(request, "processResultFromCamera", new Runnable() {
+            public void run() {
+                try {
+                    processResultFromCamera(request, intent);
+                } catch (InterruptedIOException e) {
+                    LOG.d(LOG_TAG, "Processing of the captured image was cancelled");
+                } catch (IOException e) {
+                    LOG.e(LOG_TAG, "Error capturing image", e);
+                    failPicture(request, "Error capturing image: "+e.getLocalizedMessage());
+                }
             }
+        });
+    }
+
+    /**
+     * Runs a task for the request on the plugin's executor, traced under the given section name.
+     */
+    private void runInBackground(CameraRequest request, final String sectionName, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Trace.beginSection(sectionName);
+                    try {
+                        task.run();
+                    } finally {
+                        Trace.endSection();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.failPicture(request, "Too many pending images");
+        }
+    }
+
+    /**
+     * Stops processing when the executor has been shut down because the activity was destroyed.
+     *
+     * @throws InterruptedIOException if processing should stop
+     */
+    private static void throwIfCancelled() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Image processing was cancelled");
         }
     }
 
     /**
      * Applies all needed transformation to the image received from the camera.
      *
-     * @param destType          In which form should we return the image
+     * @param request           The request the image was captured for
      * @param intent            An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
-    private void processResultFromCamera(int destType, Intent intent) throws IOException {
-        int rotate = 0;
-
+    private void processResultFromCamera(CameraRequest request, Intent intent) throws IOException {
         // Create an ExifHelper to save the exif data that is lost during compression
         ExifHelper exif = new ExifHelper();
+        int encodingType = request.getEncodingType();
+        CallbackContext callbackContext = request.getCallbackContext();
+        boolean cropped = request.isAllowEdit() && request.getCroppedUri() != null;
 
-        String sourcePath = (this.allowEdit && this.croppedUri != null) ?
-                this.croppedFilePath :
-                this.imageFilePath;
+        String sourcePath = cropped ?
+                request.getCroppedFilePath() :
+                request.getImageFilePath();
 
-        if (this.encodingType == JPEG) {
+        // The camera always writes a JPEG, which may carry a thumbnail for the preview
+        if (encodingType == JPEG || encodingType == HEIF || request.isPreviewFirst() || request.isThumbnailOnly()) {
             try {
                 //We don't support PNG, so let's not pretend we do
                 exif.createInFile(sourcePath);
                 exif.readExifData();
-                rotate = exif.getOrientation();
-
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
+        if (request.isPreviewFirst()) {
+            sendPreview(request, exif);
+        }
+
         Bitmap bitmap = null;
         Uri galleryUri = null;
 
+        // If all this is true we shouldn't compress the image.
+        // The camera writes a JPEG with an orientation tag, so when orientation is allowed to be
+        // corrected losslessly the tag already does that and the bytes can be copied as they are,
+        // as long as a JPEG is what was asked for.
+        boolean unchanged = request.getTargetHeight() == -1 && request.getTargetWidth() == -1 && request.getQuality() == 100 &&
+                request.getCropRect() == null &&
+                (!request.isCorrectOrientation() || (request.isLosslessOrientation() && encodingType == JPEG));
+
+        // The processed image can be written to the gallery while it is compressed, as a pending
+        // MediaStore entry, which only exists from Android Q on. HEIF is encoded to a file, not a stream
+        boolean compressToGallery = request.isSaveToPhotoAlbum() && request.isSaveProcessedToPhotoAlbum() &&
+                request.getDestType() == FILE_URI && !unchanged && !request.hasRenditions() && !request.isThumbnailOnly() &&
+                encodingType != HEIF && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+
         // CB-5479 When this option is given the unchanged image should be saved
         // in the gallery and the modified image is saved in the temporary
         // directory
-        if (this.saveToPhotoAlbum) {
-            GalleryPathVO galleryPathVO = getPicturesPath();
-            galleryUri = Uri.fromFile(new File(galleryPathVO.getGalleryPath()));
+        if (request.isSaveToPhotoAlbum() && !compressToGallery) {
+            galleryUri = writeCapturedPictureToGallery(request, cropped);
+        }
 
-            if (this.allowEdit && this.croppedUri != null) {
-                writeUncompressedImage(croppedUri, galleryUri);
-            } else {
-                if (Build.VERSION.SDK_INT <= 28) { // Between LOLLIPOP_MR1 and P, can be changed later to the constant Build.VERSION_CODES.P
-                    writeTakenPictureToGalleryLowerThanAndroidQ(galleryUri);
-                } else { // Android Q or higher
-                    writeTakenPictureToGalleryStartingFromAndroidQ(galleryPathVO);
+        // The embedded thumbnail is sent back without decoding the image, if there is one
+        if (request.isThumbnailOnly()) {
+            byte[] thumbnail = getEmbeddedThumbnail(request, exif);
+            if (thumbnail != null) {
+                String result = outputThumbnail(request, thumbnail);
+                if (result != null) {
+                    callbackContext.success(result);
+                }
+
+                if (request.getDestType() == DATA_URL && !request.isSaveToPhotoAlbum()) {
+                    checkForDuplicateImage(request, DATA_URL);
                 }
+                this.cleanup(request, FILE_URI, galleryUri, null);
+                return;
+            }
+            LOG.d(LOG_TAG, "The image has no embedded thumbnail, processing the image itself");
+        }
+
+        // Every rendition is made from a single decode and sent back together
+        if (request.hasRenditions()) {
+            JSONArray renditions = processRenditions(request, sourcePath, null);
+            if (renditions == null) {
+                LOG.d(LOG_TAG, "I either have a null image path or bitmap");
+                this.failPicture(request, "Unable to create bitmap!");
+                return;
+            }
+            callbackContext.success(renditions);
+
+            if (request.getDestType() == DATA_URL && !request.isSaveToPhotoAlbum()) {
+                checkForDuplicateImage(request, DATA_URL);
             }
+            this.cleanup(request, FILE_URI, galleryUri, null);
+            return;
         }
 
         // If sending base64 image back
-        if (destType == DATA_URL) {
-            bitmap = getScaledAndRotatedBitmap(sourcePath);
+        if (request.getDestType() == DATA_URL) {
+            ScaledImageVO image = getScaledAndRotatedBitmap(request, sourcePath);
+            if (image != null) {
+                bitmap = image.getBitmap();
+            }
 
             if (bitmap == null) {
                 // Try to get the bitmap from intent.
@@ -548,109 +756,226 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
             // Double-check the bitmap.
             if (bitmap == null) {
                 LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                this.failPicture("Unable to create bitmap!");
+                this.failPicture(request, "Unable to create bitmap!");
                 return;
             }
 
 
-            this.processPicture(bitmap, this.encodingType);
+            this.processPicture(request, bitmap);
 
-            if (!this.saveToPhotoAlbum) {
-                checkForDuplicateImage(DATA_URL);
+            if (!request.isSaveToPhotoAlbum()) {
+                checkForDuplicateImage(request, DATA_URL);
             }
         }
 
         // If sending filename back
-        else if (destType == FILE_URI) {
-            // If all this is true we shouldn't compress the image.
-            if (this.targetHeight == -1 && this.targetWidth == -1 && this.mQuality == 100 &&
-                    !this.correctOrientation) {
+        else if (request.getDestType() == FILE_URI) {
+            if (unchanged) {
 
                 // If we saved the uncompressed photo to the album, we can just
                 // return the URI we already created
-                if (this.saveToPhotoAlbum) {
-                    this.callbackContext.success(galleryUri.toString());
+                if (request.isSaveToPhotoAlbum()) {
+                    callbackContext.success(galleryUri.toString());
                 } else {
-                    Uri uri = Uri.fromFile(createCaptureFile(this.encodingType, System.currentTimeMillis() + ""));
+                    Uri uri = Uri.fromFile(createCaptureFile(encodingType, System.currentTimeMillis() + ""));
 
-                    if (this.allowEdit && this.croppedUri != null) {
-                        Uri croppedUri = Uri.parse(croppedFilePath);
+                    if (cropped) {
+                        Uri croppedUri = Uri.parse(request.getCroppedFilePath());
                         writeUncompressedImage(croppedUri, uri);
                     } else {
-                        Uri imageUri = this.imageUri;
+                        Uri imageUri = request.getImageUri();
                         writeUncompressedImage(imageUri, uri);
                     }
 
-                    this.callbackContext.success(uri.toString());
+                    callbackContext.success(uri.toString());
                 }
             } else {
-                Uri uri = Uri.fromFile(createCaptureFile(this.encodingType, System.currentTimeMillis() + ""));
-                bitmap = getScaledAndRotatedBitmap(sourcePath);
+                File file = createCaptureFile(encodingType, System.currentTimeMillis() + "");
+                Uri uri = Uri.fromFile(file);
+                ScaledImageVO image = getScaledAndRotatedBitmap(request, sourcePath);
 
                 // Double-check the bitmap.
-                if (bitmap == null) {
+                if (image == null || image.getBitmap() == null) {
                     LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                    this.failPicture("Unable to create bitmap!");
+                    this.failPicture(request, "Unable to create bitmap!");
                     return;
                 }
+                bitmap = image.getBitmap();
 
+                if (encodingType == HEIF) {
+                    writeHeif(request, bitmap, exif, image.isOrientationCorrected(), file);
+                    callbackContext.success(uri.toString());
+                    this.cleanup(request, FILE_URI, galleryUri, bitmap);
+                    return;
+                }
 
                 // Add compressed version of captured image to returned media store Uri
-                OutputStream os = this.cordova.getActivity().getContentResolver().openOutputStream(uri);
+                ContentResolver resolver = this.cordova.getActivity().getContentResolver();
+                OutputStream os = resolver.openOutputStream(uri);
                 CompressFormat compressFormat = getCompressFormatForEncodingType(encodingType);
 
-                bitmap.compress(compressFormat, this.mQuality, os);
-                os.close();
+                // Write the same bytes to the gallery, where the entry stays hidden until they are all written
+                Uri pendingGalleryUri = null;
+                if (compressToGallery) {
+                    pendingGalleryUri = insertPendingGalleryImage(encodingType);
+                    OutputStream galleryStream = null;
+                    if (pendingGalleryUri != null) {
+                        try {
+                            galleryStream = resolver.openOutputStream(pendingGalleryUri);
+                        } catch (IOException e) {
+                            LOG.w(LOG_TAG, "Unable to open the gallery entry: " + e.getMessage());
+                        }
+                        if (galleryStream == null) {
+                            resolver.delete(pendingGalleryUri, null, null);
+                            pendingGalleryUri = null;
+                        }
+                    }
+
+                    if (galleryStream != null) {
+                        os = new TeeOutputStream(os, galleryStream);
+                    } else {
+                        // Save the picture as it was captured instead, as without this option
+                        LOG.w(LOG_TAG, "Unable to create a gallery entry, saving the captured picture instead");
+                        galleryUri = writeCapturedPictureToGallery(request, cropped);
+                    }
+                }
 
-                // Restore exif data to file
-                if (this.encodingType == JPEG) {
-                    String exifPath;
-                    exifPath = uri.getPath();
+                // Restore exif data to file, it is written into the JPEG as it is compressed
+                if (encodingType == JPEG) {
                     //We just finished rotating it by an arbitrary orientation, just make sure it's normal
-                    if(rotate != ExifInterface.ORIENTATION_NORMAL)
+                    if (image.isOrientationCorrected())
                         exif.resetOrientation();
-                    exif.createOutFile(exifPath);
-                    exif.writeExifData();
+                    exif.setPixelDimensions(bitmap.getWidth(), bitmap.getHeight());
+                    os = exif.createOutputStream(os);
+                }
+
+                try {
+                    boolean compressed;
+                    try {
+                        compressed = bitmap.compress(compressFormat, getCompressQuality(request), os);
+                    } finally {
+                        os.close();
+                    }
+                    if (!compressed) {
+                        throw new IOException("Error compressing image.");
+                    }
+                } catch (IOException e) {
+                    if (pendingGalleryUri != null) {
+                        resolver.delete(pendingGalleryUri, null, null);
+                    }
+                    throw e;
+                }
+                if (pendingGalleryUri != null) {
+                    publishGalleryImage(pendingGalleryUri);
                 }
 
                 // Send Uri back to JavaScript for viewing image
-                this.callbackContext.success(uri.toString());
+                callbackContext.success(uri.toString());
 
             }
         } else {
             throw new IllegalStateException();
         }
 
-        this.cleanup(FILE_URI, this.imageUri, galleryUri, bitmap);
+        this.cleanup(request, FILE_URI, galleryUri, bitmap);
         bitmap = null;
     }
 
-    private void writeTakenPictureToGalleryLowerThanAndroidQ(Uri galleryUri) throws IOException {
-        writeUncompressedImage(imageUri, galleryUri);
+    /**
+     * Saves the picture as it was captured, or as it was cropped, to the gallery.
+     *
+     * @param request the request the picture was captured for
+     * @param cropped whether the picture was cropped
+     * @return the URI of the picture in the gallery
+     * @throws IOException
+     */
+    private Uri writeCapturedPictureToGallery(CameraRequest request, boolean cropped) throws IOException {
+        GalleryPathVO galleryPathVO = getPicturesPath(request.getEncodingType());
+        Uri galleryUri = Uri.fromFile(new File(galleryPathVO.getGalleryPath()));
+
+        if (cropped) {
+            writeUncompressedImage(request.getCroppedUri(), galleryUri);
+        } else {
+            if (Build.VERSION.SDK_INT <= 28) { // Between LOLLIPOP_MR1 and P, can be changed later to the constant Build.VERSION_CODES.P
+                writeTakenPictureToGalleryLowerThanAndroidQ(request, galleryUri);
+            } else { // Android Q or higher
+                writeTakenPictureToGalleryStartingFromAndroidQ(request, galleryPathVO);
+            }
+        }
+        return galleryUri;
+    }
+
+    private void writeTakenPictureToGalleryLowerThanAndroidQ(CameraRequest request, Uri galleryUri) throws IOException {
+        writeUncompressedImage(request.getImageUri(), galleryUri);
         refreshGallery(galleryUri);
     }
 
-    private void writeTakenPictureToGalleryStartingFromAndroidQ(GalleryPathVO galleryPathVO) throws IOException {
+    private void writeTakenPictureToGalleryStartingFromAndroidQ(CameraRequest request, GalleryPathVO galleryPathVO) throws IOException {
         // Starting from Android Q, working with the ACTION_MEDIA_SCANNER_SCAN_FILE intent is deprecated
         // https://developer.android.com/reference/android/content/Intent#ACTION_MEDIA_SCANNER_SCAN_FILE
         // we must start working with the MediaStore from Android Q on.
         ContentResolver resolver = this.cordova.getActivity().getContentResolver();
         ContentValues contentValues = new ContentValues();
         contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, galleryPathVO.getGalleryFileName());
-        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, getMimetypeForEncodingType());
+        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, getMimetypeForEncodingType(request.getEncodingType()));
         Uri galleryOutputUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
 
-        InputStream fileStream = org.apache.cordova.camera.FileHelper.getInputStreamFromUriString(imageUri.toString(), cordova);
+        InputStream fileStream = org.apache.cordova.camera.FileHelper.getInputStreamFromUriString(request.getImageUri().toString(), cordova);
         writeUncompressedImage(fileStream, galleryOutputUri);
     }
 
+    /**
+     * Creates a MediaStore entry for a picture that is about to be written. The entry is hidden
+     * from other apps until publishGalleryImage is called.
+     *
+     * @param encodingType the encoding of the picture
+     * @return the Uri of the entry, or null if it could not be created
+     */
+    @TargetApi(Build.VERSION_CODES.Q)
+    private Uri insertPendingGalleryImage(int encodingType) {
+        GalleryPathVO galleryPathVO = getPicturesPath(encodingType);
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, galleryPathVO.getGalleryFileName());
+        contentValues.put(MediaStore.MediaColumns.MIME_TYPE, getMimetypeForEncodingType(encodingType));
+        contentValues.put(MediaStore.MediaColumns.IS_PENDING, 1);
+        return this.cordova.getActivity().getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
+    }
+
+    /**
+     * Makes a picture written to an entry created by insertPendingGalleryImage visible.
+     */
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void publishGalleryImage(Uri galleryUri) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(MediaStore.MediaColumns.IS_PENDING, 0);
+        this.cordova.getActivity().getContentResolver().update(galleryUri, contentValues, null, null);
+    }
+
+    @SuppressWarnings("deprecation")
     private CompressFormat getCompressFormatForEncodingType(int encodingType) {
+        if (encodingType == WEBP || encodingType == WEBP_LOSSLESS) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return encodingType == WEBP ? CompressFormat.WEBP_LOSSY : CompressFormat.WEBP_LOSSLESS;
+            }
+            // Before Android R the single WEBP format is lossless at quality 100
+            return CompressFormat.WEBP;
+        }
         return encodingType == JPEG ? CompressFormat.JPEG : CompressFormat.PNG;
     }
 
-    private GalleryPathVO getPicturesPath() {
+    /**
+     * @return the quality to pass to Bitmap.compress along with getCompressFormatForEncodingType
+     */
+    private int getCompressQuality(CameraRequest request) {
+        if (request.getEncodingType() == WEBP_LOSSLESS && Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return 100;
+        }
+        return request.getQuality();
+    }
+
+    private GalleryPathVO getPicturesPath(int encodingType) {
         String timeStamp = new SimpleDateFormat(TIME_FORMAT).format(new Date());
-        String imageFileName = "IMG_" + timeStamp + getExtensionForEncodingType();
+        String imageFileName = "IMG_" + timeStamp + getExtensionForEncodingType(encodingType);
         File storageDir = Environment.getExternalStoragePublicDirectory(
                 Environment.DIRECTORY_PICTURES);
         storageDir.mkdirs();
@@ -658,161 +983,419 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
     private void refreshGallery(Uri contentUri) {
-        Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-        // Starting from Android Q, working with the ACTION_MEDIA_SCANNER_SCAN_FILE intent is deprecated
-        mediaScanIntent.setData(contentUri);
-        this.cordova.getActivity().sendBroadcast(mediaScanIntent);
+        // Starting from Android Q, files are added through the MediaStore instead
+        this.scanForGallery(contentUri);
     }
 
     /**
      * Converts output image format int value to string value of mime type.
      * @return String String value of mime type or empty string if mime type is not supported
      */
-    private String getMimetypeForEncodingType() {
+    private String getMimetypeForEncodingType(int encodingType) {
         if (encodingType == PNG) return PNG_MIME_TYPE;
         if (encodingType == JPEG) return JPEG_MIME_TYPE;
+        if (encodingType == WEBP || encodingType == WEBP_LOSSLESS) return WEBP_MIME_TYPE;
+        if (encodingType == HEIF) return HEIC_MIME_TYPE;
         return "";
     }
 
 
-    private String outputModifiedBitmap(Bitmap bitmap, Uri uri, String mimeTypeOfOriginalFile) throws IOException {
+    private String outputModifiedBitmap(CameraRequest request, ScaledImageVO image, Uri uri, String mimeTypeOfOriginalFile) throws IOException {
+        int encodingType = request.getEncodingType();
         // Some content: URIs do not map to file paths (e.g. picasa).
         String realPath = FileHelper.getRealPath(uri, this.cordova);
-        String fileName = calculateModifiedBitmapOutputFileName(mimeTypeOfOriginalFile, realPath);
+        String fileName = calculateModifiedBitmapOutputFileName(encodingType, mimeTypeOfOriginalFile, realPath);
 
         String modifiedPath = getTempDirectoryPath() + "/" + fileName;
 
+        if (encodingType == HEIF) {
+            writeHeif(request, image.getBitmap(), image.getExifData(),
+                    request.isCorrectOrientation() && image.isOrientationCorrected(), new File(modifiedPath));
+            return modifiedPath;
+        }
+
         OutputStream os = new FileOutputStream(modifiedPath);
-        CompressFormat compressFormat = getCompressFormatForEncodingType(this.encodingType);
+        CompressFormat compressFormat = getCompressFormatForEncodingType(encodingType);
+
+        // The exif data of the source is written into the JPEG as it is compressed
+        ExifHelper exifData = image.getExifData();
+        if (exifData != null && encodingType == JPEG) {
+            if (request.isCorrectOrientation() && image.isOrientationCorrected()) {
+                exifData.resetOrientation();
+            }
+            exifData.setPixelDimensions(image.getBitmap().getWidth(), image.getBitmap().getHeight());
+            os = exifData.createOutputStream(os);
+        }
 
-        bitmap.compress(compressFormat, this.mQuality, os);
+        image.getBitmap().compress(compressFormat, getCompressQuality(request), os);
         os.close();
+        return modifiedPath;
+    }
 
-        if (exifData != null && this.encodingType == JPEG) {
-            try {
-                if (this.correctOrientation && this.orientationCorrected) {
+    /**
+     * Writes the bitmap to a HEIF file, with the exif data of the source. Unlike the other
+     * formats, HEIF can't be written to a stream.
+     *
+     * @param request the request, for its quality
+     * @param bitmap the image to write
+     * @param exifData the exif data of the source, or null
+     * @param orientationCorrected whether the bitmap was turned upright, so the orientation tag is reset
+     * @param file the file to write
+     * @throws IOException if the image could not be encoded
+     */
+    private void writeHeif(CameraRequest request, Bitmap bitmap, ExifHelper exifData, boolean orientationCorrected, File file) throws IOException {
+        Trace.beginSection("writeHeif");
+        try {
+            byte[] exif = null;
+            if (exifData != null) {
+                if (orientationCorrected) {
                     exifData.resetOrientation();
                 }
-                exifData.createOutFile(modifiedPath);
-                exifData.writeExifData();
-                exifData = null;
-            } catch (IOException e) {
-                e.printStackTrace();
+                exifData.setPixelDimensions(bitmap.getWidth(), bitmap.getHeight());
+                exif = exifData.getExifData();
             }
+            HeifImageWriter.write(bitmap, request.getQuality(), exif, file);
+        } finally {
+            Trace.endSection();
         }
-        return modifiedPath;
     }
 
-    private String calculateModifiedBitmapOutputFileName(String mimeTypeOfOriginalFile, String realPath) {
+    private String calculateModifiedBitmapOutputFileName(int encodingType, String mimeTypeOfOriginalFile, String realPath) {
         if (realPath == null) {
-            return "modified" + getExtensionForEncodingType();
+            return "modified" + getExtensionForEncodingType(encodingType);
         }
         String fileName = realPath.substring(realPath.lastIndexOf('/') + 1);
-        if (getMimetypeForEncodingType().equals(mimeTypeOfOriginalFile)) {
+        if (getMimetypeForEncodingType(encodingType).equals(mimeTypeOfOriginalFile)) {
             return fileName;
         }
-        // if the picture is not a jpeg or png, (a .heic for example) when processed to a bitmap
+        // if the picture is not of the output format, (a .heic for example) when processed to a bitmap
         // the file extension is changed to the output format, f.e. an input file my_photo.heic could become my_photo.jpg
-        return fileName.substring(fileName.lastIndexOf(".") + 1) + getExtensionForEncodingType();
+        int dot = fileName.lastIndexOf(".");
+        String baseName = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return baseName + getExtensionForEncodingType(encodingType);
     }
 
-    private String getExtensionForEncodingType() {
-        return this.encodingType == JPEG ? JPEG_EXTENSION : PNG_EXTENSION;
+    /**
+     * @return the file extension for the encoding type, or null if it is not supported
+     */
+    private String getExtensionForEncodingType(int encodingType) {
+        switch (encodingType) {
+            case JPEG:
+                return JPEG_EXTENSION;
+            case PNG:
+                return PNG_EXTENSION;
+            case WEBP:
+            case WEBP_LOSSLESS:
+                return WEBP_EXTENSION;
+            case HEIF:
+                return HEIF_EXTENSION;
+            default:
+                return null;
+        }
     }
 
 
     /**
      * Applies all needed transformation to the image received from the gallery.
      *
-     * @param destType In which form should we return the image
+     * @param request  The request the image was picked for
      * @param intent   An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
-    private void processResultFromGallery(int destType, Intent intent) {
+    private void processResultFromGallery(CameraRequest request, Intent intent) {
         Uri uri = intent.getData();
         if (uri == null) {
-            if (croppedUri != null) {
-                uri = croppedUri;
+            if (request.getCroppedUri() != null) {
+                uri = request.getCroppedUri();
             } else {
-                this.failPicture("null data from photo library");
+                this.failPicture(request, "null data from photo library");
                 return;
             }
         }
 
-        String fileLocation = FileHelper.getRealPath(uri, this.cordova);
+        try {
+            Object result = processGalleryImage(request, uri, null);
+            if (result instanceof JSONArray) {
+                request.getCallbackContext().success((JSONArray) result);
+            } else if (result != null) {
+                request.getCallbackContext().success((String) result);
+            }
+        } catch (IOException e) {
+            this.failPicture(request, e.getMessage());
+        } catch (RuntimeException e) {
+            // Such as a SecurityException when the grant on the URI was revoked
+            LOG.e(LOG_TAG, "Error retrieving image", e);
+            this.failPicture(request, "Error retrieving image: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Gets the images of a multiple selection, which are either in the clip data or, when only
+     * one image was picked, in the data of the intent.
+     */
+    private static List<Uri> getSelectedUris(Intent intent) {
+        List<Uri> uris = new ArrayList<Uri>();
+        ClipData clipData = intent.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                Uri uri = clipData.getItemAt(i).getUri();
+                if (uri != null) {
+                    uris.add(uri);
+                }
+            }
+        } else if (intent.getData() != null) {
+            uris.add(intent.getData());
+        }
+        return uris;
+    }
+
+    /**
+     * Processes the images of a multiple selection in parallel. A result is sent for every image
+     * as soon as it is done, as an object holding the index of the image in the selection, the
+     * number of images, and either the data or an error. The callback is kept until the last one.
+     *
+     * @param request  The request the images were picked for
+     * @param uris     The selected images
+     */
+    private void processResultsFromGallery(final CameraRequest request, final List<Uri> uris) {
+        if (uris.isEmpty()) {
+            this.failPicture(request, "No Image Selected");
+            return;
+        }
+
+        batchExecutor.execute(new Runnable() {
+            public void run() {
+                // Resolve the paths of the whole selection with a few queries, rather than one per image
+                Trace.beginSection("getRealPaths");
+                Map<Uri, String> realPaths;
+                try {
+                    realPaths = FileHelper.getRealPaths(uris, cordova);
+                } finally {
+                    Trace.endSection();
+                }
+                queueGalleryImages(request, uris, realPaths);
+            }
+        });
+    }
+
+    /**
+     * Queues the processing of every image of a multiple selection.
+     *
+     * @param request    The request the images were picked for
+     * @param uris       The selected images
+     * @param realPaths  The real path of every selected image
+     */
+    private void queueGalleryImages(final CameraRequest request, List<Uri> uris, final Map<Uri, String> realPaths) {
+        final int count = uris.size();
+        final int[] remaining = { count };
+        final int cost = estimateDecodeMegabytes(request);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Uri uri = uris.get(i);
+            batchExecutor.execute(new Runnable() {
+                public void run() {
+                    Trace.beginSection("processResultFromGallery");
+                    JSONObject item = new JSONObject();
+                    try {
+                        item.put("index", index);
+                        item.put("count", count);
+                        decodeMemory.acquire(cost);
+                        try {
+                            item.put("data", processGalleryImage(request, uri, realPaths));
+                        } catch (IOException e) {
+                            item.put("error", e.getMessage());
+                        } catch (RuntimeException e) {
+                            // A revoked permission or a failing provider only fails this image
+                            LOG.e(LOG_TAG, "Unable to process a selected image", e);
+                            item.put("error", "Error retrieving image: " + e.getLocalizedMessage());
+                        } finally {
+                            decodeMemory.release(cost);
+                        }
+                    } catch (InterruptedException e) {
+                        LOG.d(LOG_TAG, "Processing of the selected images was cancelled");
+                        putError(item, "Image processing was cancelled");
+                    } catch (JSONException e) {
+                        LOG.e(LOG_TAG, "Unable to create the result of a selected image", e);
+                    } finally {
+                        Trace.endSection();
+
+                        // Every image sends exactly one result. Results finish in any order, make
+                        // sure the one that ends the callback is sent last
+                        synchronized (remaining) {
+                            PluginResult result = new PluginResult(PluginResult.Status.OK, item);
+                            result.setKeepCallback(--remaining[0] > 0);
+                            request.getCallbackContext().sendPluginResult(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets the error of the result of a selected image.
+     */
+    private static void putError(JSONObject item, String message) {
+        try {
+            item.put("error", message);
+        } catch (JSONException e) {
+            LOG.e(LOG_TAG, "Unable to create the result of a selected image", e);
+        }
+    }
+
+    /**
+     * Rough upper estimate, in megabytes, of the memory needed to decode and scale one image.
+     */
+    private int estimateDecodeMegabytes(CameraRequest request) {
+        int width = request.getTargetWidth();
+        int height = request.getTargetHeight();
+        long bytes;
+        if (width > 0 || height > 0) {
+            long pixels = (long) Math.max(width, height) * Math.max(width, height);
+            // The sampled decode can be up to four times the size of the target, plus the target itself
+            bytes = pixels * 4 * 5;
+        } else {
+            // The full size decode plus its rotated copy
+            bytes = FULL_SIZE_PIXELS * 4 * 2;
+        }
+        return (int) Math.max(1, Math.min(decodeMemoryLimit, bytes / MEGABYTE));
+    }
+
+    /**
+     * Applies all needed transformation to an image picked from the gallery.
+     *
+     * @param request  The request the image was picked for
+     * @param uri      The picked image
+     * @param realPaths The real paths of the selection the image is part of, or null to look it up
+     * @return the result to send back, a JSONArray when the request has renditions, or null if it
+     * has already been sent as chunks
+     * @throws IOException with the error to send back if the image can't be processed
+     */
+    private Object processGalleryImage(CameraRequest request, Uri uri, Map<Uri, String> realPaths) throws IOException {
+        ImageMetadataVO metadata = getImageMetadata(uri, realPaths);
+        String fileLocation = metadata.getRealPath();
         LOG.d(LOG_TAG, "File location is: " + fileLocation);
 
         String uriString = uri.toString();
         String finalLocation = fileLocation != null ? fileLocation : uriString;
-        String mimeTypeOfGalleryFile = FileHelper.getMimeType(uriString, this.cordova);
+        String mimeTypeOfGalleryFile = metadata.getMimeType();
+        String mimeTypeOfEncodingType = getMimetypeForEncodingType(request.getEncodingType());
 
         if (finalLocation == null) {
-            this.failPicture("Error retrieving result.");
-        } else {
-            // If you ask for video or the selected file cannot be processed
-            // there will be no attempt to resize any returned data.
-            if (this.mediaType == VIDEO  || !isImageMimeTypeProcessable(mimeTypeOfGalleryFile)) {
-                this.callbackContext.success(finalLocation);
+            throw new IOException("Error retrieving result.");
+        }
+
+        // If you ask for video or the selected file cannot be processed
+        // there will be no attempt to resize any returned data.
+        if (request.getMediaType() == VIDEO  || !isImageMimeTypeProcessable(mimeTypeOfGalleryFile)) {
+            return finalLocation;
+        }
+
+        if ((request.isPreviewFirst() || request.isThumbnailOnly()) && JPEG_MIME_TYPE.equalsIgnoreCase(mimeTypeOfGalleryFile)) {
+            ExifHelper exif = readExifData(uriString);
+            if (request.isThumbnailOnly()) {
+                byte[] thumbnail = getEmbeddedThumbnail(request, exif);
+                if (thumbnail != null) {
+                    return outputThumbnail(request, thumbnail);
+                }
+                LOG.d(LOG_TAG, "The image has no embedded thumbnail, processing the image itself");
             } else {
+                sendPreview(request, exif);
+            }
+        }
 
-                // This is a special case to just return the path as no scaling,
-                // rotating, nor compressing needs to be done
-                if (this.targetHeight == -1 && this.targetWidth == -1 &&
-                        destType == FILE_URI && !this.correctOrientation &&
-                        getMimetypeForEncodingType().equalsIgnoreCase(mimeTypeOfGalleryFile))
-                {
-                    this.callbackContext.success(finalLocation);
-                } else {
-                    Bitmap bitmap = null;
-                    try {
-                        bitmap = getScaledAndRotatedBitmap(uriString);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    if (bitmap == null) {
-                        LOG.d(LOG_TAG, "I either have a null image path or bitmap");
-                        this.failPicture("Unable to create bitmap!");
-                        return;
-                    }
+        if (request.hasRenditions()) {
+            JSONArray renditions = processRenditions(request, uriString, metadata);
+            if (renditions == null) {
+                LOG.d(LOG_TAG, "I either have a null image path or bitmap");
+                throw new IOException("Unable to create bitmap!");
+            }
+            return renditions;
+        }
 
-                    // If sending base64 image back
-                    if (destType == DATA_URL) {
-                        this.processPicture(bitmap, this.encodingType);
-                    }
+        // This is a special case to just return the path as no scaling,
+        // rotating, nor compressing needs to be done. A JPEG keeps its orientation
+        // tag, which corrects the orientation losslessly when that is allowed.
+        boolean orientationFromExif = request.isLosslessOrientation() && JPEG_MIME_TYPE.equalsIgnoreCase(mimeTypeOfGalleryFile);
+        if (request.getTargetHeight() == -1 && request.getTargetWidth() == -1 && request.getCropRect() == null &&
+                request.getDestType() == FILE_URI && (!request.isCorrectOrientation() || orientationFromExif) &&
+                mimeTypeOfEncodingType.equalsIgnoreCase(mimeTypeOfGalleryFile))
+        {
+            return finalLocation;
+        }
 
-                    // If sending filename back
-                    else if (destType == FILE_URI) {
-                        // Did we modify the image?
-                        if ( (this.targetHeight > 0 && this.targetWidth > 0) ||
-                                (this.correctOrientation && this.orientationCorrected) ||
-                                !mimeTypeOfGalleryFile.equalsIgnoreCase(getMimetypeForEncodingType()))
-                        {
-                            try {
-                                String modifiedPath = this.outputModifiedBitmap(bitmap, uri, mimeTypeOfGalleryFile);
-                                // The modified image is cached by the app in order to get around this and not have to delete you
-                                // application cache I'm adding the current system time to the end of the file url.
-                                this.callbackContext.success("file://" + modifiedPath + "?" + System.currentTimeMillis());
-
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                                this.failPicture("Error retrieving image: "+e.getLocalizedMessage());
-                            }
-                        } else {
-                            this.callbackContext.success(finalLocation);
-                        }
-                    }
-                    if (bitmap != null) {
-                        bitmap.recycle();
-                        bitmap = null;
-                    }
-                    System.gc();
+        // A failure to read the image is sent back with its own message
+        ScaledImageVO image = getScaledAndRotatedBitmap(request, uriString, metadata);
+        if (image == null || image.getBitmap() == null) {
+            LOG.d(LOG_TAG, "I either have a null image path or bitmap");
+            throw new IOException("Unable to create bitmap!");
+        }
+
+        try {
+            // If sending base64 image back
+            if (request.getDestType() == DATA_URL) {
+                if (request.isChunkedDataUrl()) {
+                    this.processPictureInChunks(request, image.getBitmap());
+                    return null;
                 }
+                return this.encodePicture(request, image.getBitmap());
             }
+
+            // If sending filename back
+            // Did we modify the image?
+            if ( (request.getTargetHeight() > 0 && request.getTargetWidth() > 0) || request.getCropRect() != null ||
+                    (request.isCorrectOrientation() && image.isOrientationCorrected()) ||
+                    !mimeTypeOfGalleryFile.equalsIgnoreCase(mimeTypeOfEncodingType))
+            {
+                try {
+                    String modifiedPath = this.outputModifiedBitmap(request, image, uri, mimeTypeOfGalleryFile);
+                    // The modified image is cached by the app in order to get around this and not have to delete you
+                    // application cache I'm adding the current system time to the end of the file url.
+                    return "file://" + modifiedPath + "?" + System.currentTimeMillis();
+
+                } catch (IOException e) {
+                    LOG.e(LOG_TAG, "Error writing the modified image", e);
+                    throw new IOException("Error retrieving image: "+e.getLocalizedMessage(), e);
+                }
+            }
+            return finalLocation;
+        } finally {
+            bitmapPool.put(image.getBitmap());
+            image = null;
         }
+    }
 
+    /**
+     * Returns the real path and the mime type of a picked image, from the cache when it was
+     * picked before.
+     *
+     * @param uri the picked image
+     * @param realPaths already resolved real paths, or null
+     * @return the metadata of the image
+     */
+    private ImageMetadataVO getImageMetadata(Uri uri, Map<Uri, String> realPaths) {
+        String uriString = uri.toString();
+        ImageMetadataVO metadata = metadataCache.get(uriString);
+        if (metadata == null) {
+            String realPath = realPaths != null && realPaths.containsKey(uri)
+                    ? realPaths.get(uri) : FileHelper.getRealPath(uri, this.cordova);
+            String mimeType = FileHelper.getMimeType(uriString, this.cordova);
+            long size = -1;
+            long lastModified = 0;
+            if (realPath != null) {
+                File file = new File(realPath);
+                if (file.canRead()) {
+                    size = file.length();
+                    lastModified = file.lastModified();
+                }
+            }
+            metadata = new ImageMetadataVO(realPath, mimeType, size, lastModified);
+            metadataCache.put(uriString, metadata);
+        }
+        return metadata;
     }
 
     /**
-     * JPEG, PNG and HEIC mime types (images) can be scaled, decreased in quantity, corrected by orientation.
+     * JPEG, PNG, WebP and HEIC mime types (images) can be scaled, decreased in quantity, corrected by orientation.
      * But f.e. an image/gif cannot be scaled, but is can be selected through the PHOTOLIBRARY.
      *
      * @param mimeType The mimeType to check
@@ -820,7 +1403,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      */
     private boolean isImageMimeTypeProcessable(String mimeType) {
         return JPEG_MIME_TYPE.equalsIgnoreCase(mimeType) || PNG_MIME_TYPE.equalsIgnoreCase(mimeType)
-                || HEIC_MIME_TYPE.equalsIgnoreCase(mimeType);
+                || WEBP_MIME_TYPE.equalsIgnoreCase(mimeType) || HEIC_MIME_TYPE.equalsIgnoreCase(mimeType);
     }
 
     /**
@@ -832,100 +1415,94 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * @param intent      An Intent, which can return result data to the caller (various data can be attached to Intent "extras").
      */
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
+        Trace.beginSection("CameraLauncher.onActivityResult");
+        try {
+            handleActivityResult(requestCode, resultCode, intent);
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-        // Get src and dest types from request code for a Camera Activity
-        int srcType = (requestCode / 16) - 1;
-        int destType = (requestCode % 16) - 1;
-
-        // If Camera Crop
-        if (requestCode >= CROP_CAMERA) {
-            if (resultCode == Activity.RESULT_OK) {
+    private void handleActivityResult(int requestCode, int resultCode, Intent intent) {
 
-                // Because of the inability to pass through multiple intents, this hack will allow us
-                // to pass arcane codes back.
-                destType = requestCode - CROP_CAMERA;
-                try {
-                    processResultFromCamera(destType, intent);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    LOG.e(LOG_TAG, "Unable to write to file");
-                }
+        // Get src type from request code for a Camera Activity
+        int srcType = (requestCode / 16) - 1;
 
-            }// If cancelled
-            else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
-            }
+        if (requestCode == RECOVERABLE_DELETE_REQUEST){
+          // retry media store deletion ...
+          ContentResolver contentResolver = this.cordova.getActivity().getContentResolver();
+          try {
+            contentResolver.delete(this.pendingDeleteMediaUri, null, null);
+          } catch (Exception e) {
+            LOG.e(LOG_TAG, "Unable to delete media store file after permission was granted");
+          }
+          this.pendingDeleteMediaUri = null;
+          return;
+        }
+
+        // The result belongs to the request that launched the Activity, hand it over to be processed
+        final CameraRequest request = this.pendingRequest;
+        this.pendingRequest = null;
+        if (request == null) {
+            LOG.e(LOG_TAG, "Received an Activity result without a pending request");
+            return;
+        }
+
+        // If Camera Crop
+        if (requestCode >= CROP_CAMERA) {
+            if (resultCode == Activity.RESULT_OK) {
+                processResultFromCameraInBackground(request, intent);
+
+            }// If cancelled
+            else if (resultCode == Activity.RESULT_CANCELED) {
+                this.failPicture(request, "No Image Selected");
+            }
 
             // If something else
             else {
-                this.failPicture("Did not complete!");
+                this.failPicture(request, "Did not complete!");
             }
         }
         // If CAMERA
         else if (srcType == CAMERA) {
             // If image available
             if (resultCode == Activity.RESULT_OK) {
-                try {
-                    if (this.allowEdit) {
-                        Uri tmpFile = FileProvider.getUriForFile(cordova.getActivity(),
-                                applicationId + ".cordova.plugin.camera.provider",
-                                createCaptureFile(this.encodingType));
-                        performCrop(tmpFile, destType, intent);
-                    } else {
-                        this.processResultFromCamera(destType, intent);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    this.failPicture("Error capturing image: "+e.getLocalizedMessage());
+                if (request.isAllowEdit()) {
+                    Uri tmpFile = FileProvider.getUriForFile(cordova.getActivity(),
+                            applicationId + ".cordova.plugin.camera.provider",
+                            new File(request.getImageFilePath()));
+                    performCrop(request, tmpFile, intent);
+                } else {
+                    processResultFromCameraInBackground(request, intent);
                 }
             }
 
             // If cancelled
             else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
+                this.failPicture(request, "No Image Selected");
             }
 
             // If something else
             else {
-                this.failPicture("Did not complete!");
+                this.failPicture(request, "Did not complete!");
             }
         }
         // If retrieving photo from library
         else if ((srcType == PHOTOLIBRARY) || (srcType == SAVEDPHOTOALBUM)) {
-            if (resultCode == Activity.RESULT_OK && intent != null) {
+            if (resultCode == Activity.RESULT_OK && intent != null && request.isMultiple()) {
+                processResultsFromGallery(request, getSelectedUris(intent));
+            } else if (resultCode == Activity.RESULT_OK && intent != null) {
                 final Intent i = intent;
-                final int finalDestType = destType;
-                cordova.getThreadPool().execute(new Runnable() {
+                runInBackground(request, "processResultFromGallery", new Runnable() {
                     public void run() {
-                        processResultFromGallery(finalDestType, i);
+                        processResultFromGallery(request, i);
                     }
                 });
             } else if (resultCode == Activity.RESULT_CANCELED) {
-                this.failPicture("No Image Selected");
+                this.failPicture(request, "No Image Selected");
             } else {
-                this.failPicture("Selection did not complete!");
+                this.failPicture(request, "Selection did not complete!");
             }
-        } else if (requestCode == RECOVERABLE_DELETE_REQUEST){
-          // retry media store deletion ...
-          ContentResolver contentResolver = this.cordova.getActivity().getContentResolver();
-          try {
-            contentResolver.delete(this.pendingDeleteMediaUri, null, null);
-          } catch (Exception e) {
-            LOG.e(LOG_TAG, "Unable to delete media store file after permission was granted");
-          }
-          this.pendingDeleteMediaUri = null;
-        }
-    }
-
-    private int exifToDegrees(int exifOrientation) {
-        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
-            return 90;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
-            return 180;
-        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            return 270;
-        } else {
-            return 0;
         }
     }
 
@@ -942,11 +1519,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         OutputStream os = null;
         try {
             os = this.cordova.getActivity().getContentResolver().openOutputStream(dest);
-            byte[] buffer = new byte[4096];
-            int len;
-            while ((len = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, len);
-            }
+            FileTransfer.copy(fis, os);
             os.flush();
         } finally {
             if (os != null) {
@@ -982,26 +1555,300 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
     /**
-     * Return a scaled and rotated bitmap based on the target width and height
+     * Reads the exif data of a JPEG, for the thumbnail embedded in it.
+     *
+     * @param imageUrl the URI string of the JPEG
+     * @return the exif data, or null if it could not be read
+     */
+    private ExifHelper readExifData(String imageUrl) {
+        ExifHelper exif = new ExifHelper();
+        try {
+            exif.createInStream(FileHelper.getInputStreamFromUriString(imageUrl, cordova));
+            exif.readExifData();
+            return exif;
+        } catch (IOException e) {
+            LOG.w(LOG_TAG, "Unable to read the exif data of the image: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the thumbnail embedded in the exif data of the source, turned upright when the
+     * request corrects the orientation. Only the thumbnail is decoded for that, never the image.
+     *
+     * @param request the request
+     * @param exif the exif data of the source, or null
+     * @return the thumbnail as a JPEG, or null if the source has none
+     */
+    private byte[] getEmbeddedThumbnail(CameraRequest request, ExifHelper exif) {
+        byte[] thumbnail = exif != null ? exif.getThumbnail() : null;
+        if (thumbnail == null || !request.isCorrectOrientation() || exif.getOrientation() == 0) {
+            return thumbnail;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+        if (bitmap == null) {
+            return null;
+        }
+        bitmap = transformBitmap(bitmap, bitmap.getWidth(), bitmap.getHeight(), exif.getOrientation());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(thumbnail.length);
+        bitmap.compress(CompressFormat.JPEG, request.getQuality(), out);
+        bitmapPool.put(bitmap);
+        return out.toByteArray();
+    }
+
+    /**
+     * Sends the thumbnail embedded in the exif data of the source ahead of the processed image,
+     * as a result that keeps the callback alive. Nothing is sent if the source has no thumbnail.
+     *
+     * @param request the request
+     * @param exif the exif data of the source, or null
+     */
+    private void sendPreview(CameraRequest request, ExifHelper exif) {
+        Trace.beginSection("sendPreview");
+        try {
+            byte[] thumbnail = getEmbeddedThumbnail(request, exif);
+            if (thumbnail == null) {
+                LOG.d(LOG_TAG, "The image has no embedded thumbnail to preview");
+                return;
+            }
+
+            JSONObject preview = new JSONObject();
+            preview.put("preview", encodeBase64(thumbnail));
+            // The rotation the preview still needs, when it wasn't turned upright
+            preview.put("orientation", request.isCorrectOrientation() ? 0 : exif.getOrientation());
+            PluginResult result = new PluginResult(PluginResult.Status.OK, preview);
+            result.setKeepCallback(true);
+            request.getCallbackContext().sendPluginResult(result);
+        } catch (JSONException e) {
+            LOG.e(LOG_TAG, "Unable to create the preview result");
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Outputs the thumbnail embedded in the exif data of the source as the result of the request.
+     *
+     * Chunked data URL requests get the thumbnail streamed back like any other chunked result.
+     *
+     * @param request the request
+     * @param thumbnail the JPEG data of the thumbnail
+     * @return the file URI or the Base64 encoding of the thumbnail, or null if it was already sent
+     *         back in chunks
+     * @throws IOException
+     */
+    private String outputThumbnail(CameraRequest request, byte[] thumbnail) throws IOException {
+        if (request.getDestType() == DATA_URL) {
+            if (request.isChunkedDataUrl()) {
+                ChunkedResultOutputStream chunks = new ChunkedResultOutputStream(request.getCallbackContext(), JPEG_MIME_TYPE, getChunkSize());
+                chunks.write(thumbnail);
+                chunks.close();
+                return null;
+            }
+            return encodeBase64(thumbnail);
+        }
+
+        File file = createCaptureFile(JPEG, "thumbnail_" + System.currentTimeMillis());
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(thumbnail);
+        } finally {
+            os.close();
+        }
+        return Uri.fromFile(file).toString();
+    }
+
+    private static String encodeBase64(byte[] data) {
+        Base64StringOutputStream base64_data = new Base64StringOutputStream(data.length);
+        base64_data.write(data, 0, data.length);
+        return base64_data.toString();
+    }
+
+    /**
+     * Decodes the source once, at the size of the largest rendition of the request, and outputs
+     * every rendition from that single decode.
+     *
+     * @param request the request, with its renditions
+     * @param imageUrl the URI string of the source
+     * @param metadata what is known about the source, or null to read everything from the source
+     * @return the file URIs or the Base64 encoded images, in the order the renditions were
+     * requested, or null if the source could not be decoded
+     * @throws IOException
+     */
+    private JSONArray processRenditions(CameraRequest request, String imageUrl, ImageMetadataVO metadata) throws IOException {
+        // The decode has to hold every rendition. A side that one of them leaves open is left open.
+        int width = 0;
+        int height = 0;
+        for (RenditionVO rendition : request.getRenditions()) {
+            if (getExtensionForEncodingType(rendition.getEncodingType()) == null) {
+                throw new IOException("Invalid Encoding Type: " + rendition.getEncodingType());
+            }
+            width = width < 0 || rendition.getTargetWidth() <= 0 ? -1 : Math.max(width, rendition.getTargetWidth());
+            height = height < 0 || rendition.getTargetHeight() <= 0 ? -1 : Math.max(height, rendition.getTargetHeight());
+        }
+
+        ScaledImageVO image = getScaledAndRotatedBitmap(request.withTargetSize(width, height), imageUrl, metadata);
+        if (image == null || image.getBitmap() == null) {
+            return null;
+        }
+        return outputRenditions(request, image);
+    }
+
+    /**
+     * Outputs every rendition of the request from the largest to the smallest, each one scaled
+     * down from the one before it rather than from the full decode.
+     *
+     * @param request the request, with its renditions
+     * @param image the source decoded at the size of the largest rendition, its bitmap is returned to the pool
+     * @return the file URIs or the Base64 encoded images, in the order the renditions were requested
+     * @throws IOException
+     */
+    private JSONArray outputRenditions(CameraRequest request, ScaledImageVO image) throws IOException {
+        List<RenditionVO> renditions = request.getRenditions();
+        int count = renditions.size();
+        Bitmap bitmap = image.getBitmap();
+
+        final int[][] sizes = new int[count][];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            RenditionVO rendition = renditions.get(i);
+            int[] size = calculateAspectRatio(bitmap.getWidth(), bitmap.getHeight(),
+                    rendition.getTargetWidth(), rendition.getTargetHeight());
+            sizes[i] = new int[] { Math.max(1, size[0]), Math.max(1, size[1]) };
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare((long) sizes[b][0] * sizes[b][1], (long) sizes[a][0] * sizes[a][1]);
+            }
+        });
+
+        String[] results = new String[count];
+        String baseName = "rendition_" + System.currentTimeMillis() + "_";
+        try {
+            for (int i : order) {
+                throwIfCancelled();
+                Trace.beginSection("outputRendition");
+                try {
+                    bitmap = downscaleBitmap(bitmap, sizes[i][0], sizes[i][1]);
+                    CameraRequest renditionRequest = request.withRendition(renditions.get(i));
+                    if (request.getDestType() == DATA_URL) {
+                        results[i] = encodePicture(renditionRequest, bitmap);
+                    } else {
+                        results[i] = outputRendition(renditionRequest, image, bitmap, baseName + i);
+                    }
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        } finally {
+            bitmapPool.put(bitmap);
+        }
+
+        JSONArray result = new JSONArray();
+        for (String rendition : results) {
+            result.put(rendition);
+        }
+        return result;
+    }
+
+    /**
+     * Scales the bitmap down by halving it until it is less than twice the given size, and then
+     * to the size itself. A filtered draw only samples a few source pixels for every destination
+     * pixel, so going down in steps keeps detail that a single large step would alias away.
      *
+     * @param bitmap the bitmap to scale, which is returned to the pool
+     * @param width the width to scale to
+     * @param height the height to scale to
+     * @return the scaled bitmap, which is the source itself if it already has the given size
+     */
+    private Bitmap downscaleBitmap(Bitmap bitmap, int width, int height) {
+        while (bitmap.getWidth() / 2 >= width && bitmap.getHeight() / 2 >= height) {
+            bitmap = transformBitmap(bitmap, bitmap.getWidth() / 2, bitmap.getHeight() / 2, 0);
+        }
+        return transformBitmap(bitmap, width, height, 0);
+    }
+
+    /**
+     * Compresses one rendition to a file of its own in the temporary directory.
+     *
+     * @param request the request of the rendition
+     * @param image the decode the rendition was made from, for its exif data
+     * @param bitmap the rendition
+     * @param fileName the name of the file, without extension
+     * @return the file URI of the rendition
+     * @throws IOException
+     */
+    private String outputRendition(CameraRequest request, ScaledImageVO image, Bitmap bitmap, String fileName) throws IOException {
+        int encodingType = request.getEncodingType();
+        File file = createCaptureFile(encodingType, fileName);
+        if (encodingType == HEIF) {
+            writeHeif(request, bitmap, image.getExifData(), image.isOrientationCorrected(), file);
+            return Uri.fromFile(file).toString();
+        }
+        OutputStream os = new FileOutputStream(file);
+
+        // The exif data of the source is written into the JPEG as it is compressed
+        ExifHelper exifData = image.getExifData();
+        if (exifData != null && encodingType == JPEG) {
+            if (image.isOrientationCorrected()) {
+                exifData.resetOrientation();
+            }
+            exifData.setPixelDimensions(bitmap.getWidth(), bitmap.getHeight());
+            os = exifData.createOutputStream(os);
+        }
+
+        try {
+            if (!bitmap.compress(getCompressFormatForEncodingType(encodingType), getCompressQuality(request), os)) {
+                throw new IOException("Error compressing image.");
+            }
+        } finally {
+            os.close();
+        }
+        return Uri.fromFile(file).toString();
+    }
+
+    /**
+     * Return a scaled and rotated bitmap based on the target width and height of the request
+     *
+     * @param request
      * @param imageUrl
-     * @return
+     * @return the bitmap together with the exif data of the source, or null
      * @throws IOException
      */
-    private Bitmap getScaledAndRotatedBitmap(String imageUrl) throws IOException {
+    private ScaledImageVO getScaledAndRotatedBitmap(CameraRequest request, String imageUrl) throws IOException {
+        return getScaledAndRotatedBitmap(request, imageUrl, null);
+    }
+
+    /**
+     * Return a scaled and rotated bitmap based on the target width and height, taking the size
+     * and the orientation of the source from its cached metadata when they are known.
+     *
+     * @param request
+     * @param imageUrl the URI string of the source, also the key of its metadata in the cache
+     * @param metadata what is known about the source, or null to read everything from the source
+     * @return the bitmap together with the exif data of the source, or null
+     * @throws IOException
+     */
+    private ScaledImageVO getScaledAndRotatedBitmap(CameraRequest request, String imageUrl, ImageMetadataVO metadata) throws IOException {
         // If no new width or height were specified, and orientation is not needed return the original bitmap
-        if (this.targetWidth <= 0 && this.targetHeight <= 0 && !(this.correctOrientation)) {
+        if (request.getTargetWidth() <= 0 && request.getTargetHeight() <= 0 && !(request.isCorrectOrientation()) &&
+                request.getCropRect() == null) {
             InputStream fileStream = null;
             Bitmap image = null;
             try {
                 fileStream = FileHelper.getInputStreamFromUriString(imageUrl, cordova);
                 image = BitmapFactory.decodeStream(fileStream);
-            }  catch (OutOfMemoryError e) {
-                callbackContext.error(e.getLocalizedMessage());
-            } catch (Exception e){
-                callbackContext.error(e.getLocalizedMessage());
-            }
-            finally {
+            } catch (OutOfMemoryError e) {
+                // Thrown rather than sent, a call for several images goes on with the next one
+                throw new IOException(e.getLocalizedMessage());
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getLocalizedMessage());
+            } finally {
                 if (fileStream != null) {
                     try {
                         fileStream.close();
@@ -1010,82 +1857,86 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                     }
                 }
             }
-            return image;
+            return new ScaledImageVO(image, null, false);
         }
 
 
-        /*  Copy the inputstream to a temporary file on the device.
-            We then use this temporary file to determine the width/height/orientation.
+        /*  Read the source exactly once. Files are decoded in place and everything else is
+            buffered in memory, so the width/height, the orientation and the sampled bitmap are
+            all taken from the same bytes instead of reopening the provider for every step.
             This is the only way to determine the orientation of the photo coming from 3rd party providers (Google Drive, Dropbox,etc)
-            This also ensures we create a scaled bitmap with the correct orientation
-
-             We delete the temporary file once we are done
+            Sources too large to buffer fall back to a temporary file, which is deleted once we are done
          */
-        File localFile = null;
-        Uri galleryUri = null;
-        int rotate = 0;
+        ImageSource source;
         try {
-            InputStream fileStream = FileHelper.getInputStreamFromUriString(imageUrl, cordova);
-            if (fileStream != null) {
-                // Generate a temporary file
-                String timeStamp = new SimpleDateFormat(TIME_FORMAT).format(new Date());
-                String fileName = "IMG_" + timeStamp + (getExtensionForEncodingType());
-                localFile = new File(getTempDirectoryPath() + fileName);
-                galleryUri = Uri.fromFile(localFile);
-                writeUncompressedImage(fileStream, galleryUri);
-                try {
-                    String mimeType = FileHelper.getMimeType(imageUrl.toString(), cordova);
-                    if (JPEG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-                        //  ExifInterface doesn't like the file:// prefix
-                        String filePath = galleryUri.toString().replace("file://", "");
-                        // read exifData of source
-                        exifData = new ExifHelper();
-                        exifData.createInFile(filePath);
-                        exifData.readExifData();
-                        // Use ExifInterface to pull rotation information
-                        if (this.correctOrientation) {
-                            ExifInterface exif = new ExifInterface(filePath);
-                            rotate = exifToDegrees(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED));
-                        }
-                    }
-                } catch (Exception oe) {
-                    LOG.w(LOG_TAG,"Unable to read Exif data: "+ oe.toString());
-                    rotate = 0;
-                }
-            }
+            source = ImageSource.open(imageUrl, getTempDirectoryPath(), cordova);
         } catch (Exception e) {
             LOG.e(LOG_TAG,"Exception while getting input stream: "+ e.toString());
             return null;
         }
+        if (source == null) {
+            return null;
+        }
 
         try {
             // figure out the original width and height of the image
             BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            InputStream fileStream = null;
-            try {
-                fileStream = FileHelper.getInputStreamFromUriString(galleryUri.toString(), cordova);
-                BitmapFactory.decodeStream(fileStream, null, options);
-            } finally {
-                if (fileStream != null) {
-                    try {
-                        fileStream.close();
-                    } catch (IOException e) {
-                        LOG.d(LOG_TAG, "Exception while closing file input stream.");
-                    }
-                }
+            boolean cached = metadata != null && metadata.hasImageInfo();
+            if (cached) {
+                options.outWidth = metadata.getWidth();
+                options.outHeight = metadata.getHeight();
+                options.outMimeType = metadata.getMimeType();
+            } else {
+                options.inJustDecodeBounds = true;
+                source.decode(options);
             }
 
-
             //CB-2292: WTF? Why is the width null?
             if (options.outWidth == 0 || options.outHeight == 0) {
                 return null;
             }
 
-            // User didn't specify output dimensions, but they need orientation
-            if (this.targetWidth <= 0 && this.targetHeight <= 0) {
-                this.targetWidth = options.outWidth;
-                this.targetHeight = options.outHeight;
+            int rotate = 0;
+            int orientation = 0;
+            int orientationTag = ExifInterface.ORIENTATION_UNDEFINED;
+            boolean orientationKnown = PNG_MIME_TYPE.equalsIgnoreCase(options.outMimeType);
+            ExifHelper exifData = null;
+            if (cached && request.getDestType() == DATA_URL) {
+                // The exif data is only needed to be written back to a file
+                orientation = metadata.getOrientation();
+                orientationTag = metadata.getOrientationTag();
+                orientationKnown = orientationKnown || JPEG_MIME_TYPE.equalsIgnoreCase(options.outMimeType);
+                if (request.isCorrectOrientation()) {
+                    rotate = orientation;
+                }
+            } else if (JPEG_MIME_TYPE.equalsIgnoreCase(options.outMimeType)) {
+                try {
+                    // read exifData of source
+                    exifData = source.createExifHelper();
+                    exifData.readExifData();
+                    orientation = exifData.getOrientation();
+                    orientationTag = exifData.getOrientationTag();
+                    orientationKnown = true;
+                    // Use the exif data to pull rotation information
+                    if (request.isCorrectOrientation()) {
+                        rotate = orientation;
+                    }
+                } catch (Exception oe) {
+                    LOG.w(LOG_TAG,"Unable to read Exif data: "+ oe.toString());
+                    rotate = 0;
+                }
+            }
+
+            if (metadata != null && !cached) {
+                metadataCache.put(imageUrl, metadata.withImageInfo(options.outWidth, options.outHeight, orientation, orientationTag));
+            }
+
+            // When cropping, the crop takes the place of the source from here on
+            Rect region = null;
+            if (request.getCropRect() != null) {
+                region = getSourceRegion(request.getCropRect(), options.outWidth, options.outHeight, orientation);
+                options.outWidth = region.width();
+                options.outHeight = region.height();
             }
 
             // Setup target width/height based on orientation
@@ -1100,55 +1951,381 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                 rotatedHeight = options.outHeight;
             }
 
-            // determine the correct aspect ratio
-            int[] widthHeight = calculateAspectRatio(rotatedWidth, rotatedHeight);
+            // determine the correct aspect ratio, when the user didn't specify output dimensions
+            // but they need orientation this is the rotated size of the original
+            int[] widthHeight = calculateAspectRatio(rotatedWidth, rotatedHeight, request.getTargetWidth(), request.getTargetHeight());
+
+            int scaledWidth = (!rotated) ? widthHeight[0] : widthHeight[1];
+            int scaledHeight = (!rotated) ? widthHeight[1] : widthHeight[0];
+
+            throwIfCancelled();
+
+            // Decode, scale and turn upright in one pass when ImageDecoder leaves nothing to do afterwards
+            if (region == null && canDecodeToSize(request, orientationKnown, orientationTag)) {
+                // ImageDecoder applies the orientation tag, so the size is that of the upright image
+                boolean transposed = swapsAxes(orientationTag);
+                int[] uprightSize = calculateAspectRatio(
+                        transposed ? options.outHeight : options.outWidth,
+                        transposed ? options.outWidth : options.outHeight,
+                        request.getTargetWidth(), request.getTargetHeight());
+                Bitmap scaledBitmap = decodeToSize(source, uprightSize[0], uprightSize[1]);
+                if (scaledBitmap != null) {
+                    return new ScaledImageVO(scaledBitmap, exifData, !isUpright(orientationTag));
+                }
+            }
 
             // Load in the smallest bitmap possible that is closest to the size we want
             options.inJustDecodeBounds = false;
             options.inSampleSize = calculateSampleSize(rotatedWidth, rotatedHeight,  widthHeight[0], widthHeight[1]);
-            Bitmap unscaledBitmap = null;
-            try {
-                fileStream = FileHelper.getInputStreamFromUriString(galleryUri.toString(), cordova);
-                unscaledBitmap = BitmapFactory.decodeStream(fileStream, null, options);
-            } finally {
-                if (fileStream != null) {
-                    try {
-                        fileStream.close();
-                    } catch (IOException e) {
-                        LOG.d(LOG_TAG, "Exception while closing file input stream.");
-                    }
+
+            // Images too large to hold in memory even when sampled are resized strip by strip
+            if (needsTiledDecode(options.outWidth, options.outHeight, options.inSampleSize, scaledWidth, scaledHeight)) {
+                Rect area = region != null ? region : new Rect(0, 0, options.outWidth, options.outHeight);
+                Bitmap tiledBitmap = decodeTiled(source, area, options.inSampleSize, scaledWidth, scaledHeight, rotate);
+                if (tiledBitmap != null) {
+                    return new ScaledImageVO(tiledBitmap, exifData, rotate != 0);
                 }
             }
+
+            // BitmapFactory can scale the sampled image to the target size while decoding,
+            // which leaves transformBitmap nothing to do unless there is a rotation
+            if (region == null) {
+                setDecodeScale(options, scaledWidth);
+            }
+            Bitmap unscaledBitmap = region != null
+                    ? decodeRegion(source, region, options)
+                    : decodePooled(source, options);
             if (unscaledBitmap == null) {
                 return null;
             }
+            // The density only carries the decode scale, it mustn't scale the bitmap when drawn
+            unscaledBitmap.setDensity(Bitmap.DENSITY_NONE);
+            if (Thread.currentThread().isInterrupted()) {
+                bitmapPool.put(unscaledBitmap);
+                throwIfCancelled();
+            }
 
-            int scaledWidth = (!rotated) ? widthHeight[0] : widthHeight[1];
-            int scaledHeight = (!rotated) ? widthHeight[1] : widthHeight[0];
+            // Scale and rotate in a single pass, so only one full size bitmap is allocated
+            Bitmap scaledBitmap = transformBitmap(unscaledBitmap, scaledWidth, scaledHeight, rotate);
+            unscaledBitmap = null;
+            return new ScaledImageVO(scaledBitmap, exifData, rotate != 0);
+        } catch (OutOfMemoryError oom) {
+            LOG.e(LOG_TAG, "Out of memory while scaling or rotating the image");
+            return null;
+        } finally {
+            // delete the temporary copy, if one was needed
+            source.close();
+        }
+
+    }
+
+    /**
+     * ImageDecoder applies the orientation of the source by itself, which the BitmapFactory route
+     * leaves to the exif data or to transformBitmap. So it is only used when the orientation of
+     * the source is known: JPEGs whose exif data could be read, and PNGs. Sources that aren't
+     * upright are only decoded with it when the orientation is to be corrected anyway. The tag
+     * itself is checked, as the flips and transposes have no rotation in degrees but ImageDecoder
+     * still applies them.
+     *
+     * @param request the request
+     * @param orientationKnown whether the orientation of the source could be read
+     * @param orientationTag the orientation tag of the source
+     * @return whether the source can be decoded with decodeToSize
+     */
+    private boolean canDecodeToSize(CameraRequest request, boolean orientationKnown, int orientationTag) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && orientationKnown &&
+                (isUpright(orientationTag) || request.isCorrectOrientation());
+    }
+
+    /**
+     * @return whether an image with the given orientation tag is displayed as it is stored
+     */
+    private static boolean isUpright(int orientationTag) {
+        return orientationTag == ExifInterface.ORIENTATION_NORMAL || orientationTag == ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    /**
+     * @return whether the given orientation tag swaps the width and the height of the image
+     */
+    private static boolean swapsAxes(int orientationTag) {
+        return orientationTag == ExifInterface.ORIENTATION_TRANSPOSE || orientationTag == ExifInterface.ORIENTATION_ROTATE_90 ||
+                orientationTag == ExifInterface.ORIENTATION_TRANSVERSE || orientationTag == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * Decodes the source straight to the given size with ImageDecoder.
+     *
+     * @param source the image to decode
+     * @param width the width to decode to
+     * @param height the height to decode to
+     * @return the decoded bitmap, or null if the BitmapFactory route should be taken instead
+     */
+    @TargetApi(Build.VERSION_CODES.P)
+    private Bitmap decodeToSize(ImageSource source, int width, int height) {
+        Trace.beginSection("decodeToSize");
+        try {
+            return source.decode(width, height);
+        } catch (IOException e) {
+            LOG.w(LOG_TAG, "ImageDecoder could not decode the image, falling back to BitmapFactory: " + e.getMessage());
+            return null;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Decodes the source into a pooled bitmap when one of a suitable size is available.
+     *
+     * @param source the image to decode
+     * @param options the bounds of the source and the sample size to decode at
+     * @return the decoded bitmap, or null if the source could not be decoded
+     */
+    private Bitmap decodePooled(ImageSource source, BitmapFactory.Options options) {
+        bitmapPool.prepareDecode(options);
+        Bitmap bitmap;
+        try {
+            bitmap = source.decode(options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap can't be reused for this image, decode into a new one
+            bitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = source.decode(options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            bitmapPool.put(options.inBitmap);
+        }
+        options.inBitmap = null;
+        return bitmap;
+    }
+
+    /**
+     * Decodes only the given region of the source. Pooled bitmaps aren't used: BitmapRegionDecoder
+     * keeps the size of an inBitmap and draws the region into its corner.
+     *
+     * @param source the image to decode
+     * @param region the region to decode, in pixels of the source
+     * @param options the sample size to decode at
+     * @return the decoded region, or null if the source could not be decoded
+     */
+    private Bitmap decodeRegion(ImageSource source, Rect region, BitmapFactory.Options options) {
+        Trace.beginSection("decodeRegion");
+        try {
+            options.inMutable = true;
+            return source.decodeRegion(region, options);
+        } catch (IOException e) {
+            LOG.w(LOG_TAG, "Unable to decode a region of the image: " + e.getMessage());
+            return null;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Strips are slower than a single sampled decode, as every strip decodes the source again
+     * from the top, so they are only used when the sampled bitmap and the result won't both fit
+     * in the memory that is free.
+     *
+     * @return whether a source of the given size has to be decoded in strips
+     */
+    private static boolean needsTiledDecode(int width, int height, int sampleSize, int targetWidth, int targetHeight) {
+        // Decoders may round the sample size down to a power of two
+        int sample = Integer.highestOneBit(Math.max(1, sampleSize));
+        long pixels = (long) ((width + sample - 1) / sample) * ((height + sample - 1) / sample);
+        long bytes = (pixels + (long) targetWidth * targetHeight) * 4;
+
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        // Leave headroom for the encoder and the other images being processed
+        return bytes > free - runtime.maxMemory() / 8;
+    }
 
-            Bitmap scaledBitmap = Bitmap.createScaledBitmap(unscaledBitmap, scaledWidth, scaledHeight, true);
-            if (scaledBitmap != unscaledBitmap) {
-                unscaledBitmap.recycle();
-                unscaledBitmap = null;
+    /**
+     * Resizes an area of the source into a bitmap of the given size by walking it in horizontal
+     * strips, so only one sampled strip and the result are in memory at the same time.
+     *
+     * Each strip is decoded with BitmapRegionDecoder at the largest power of two sample size that
+     * keeps it at least as large as the result, and drawn into the result with bilinear
+     * filtering, which then never scales by less than half and so doesn't alias. Strips overlap
+     * by a few rows, of which only their own are drawn, so the filter has the pixels of the
+     * neighbouring strips at the seams.
+     *
+     * @param source the image to decode
+     * @param area the area of the source to decode
+     * @param sampleSize the sample size of a full decode of the area
+     * @param width the width to scale to, before rotation
+     * @param height the height to scale to, before rotation
+     * @param rotate the clockwise rotation in degrees, a multiple of 90
+     * @return the resized bitmap, or null if the source can't be decoded in regions
+     * @throws InterruptedIOException if processing was cancelled
+     */
+    private Bitmap decodeTiled(ImageSource source, Rect area, int sampleSize, int width, int height, int rotate)
+            throws InterruptedIOException {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = source.newRegionDecoder();
+        } catch (IOException e) {
+            LOG.w(LOG_TAG, "Unable to decode the image in strips: " + e.getMessage());
+            return null;
+        }
+
+        Trace.beginSection("decodeTiled");
+        Bitmap strip = null;
+        Bitmap result = null;
+        try {
+            int sample = Integer.highestOneBit(Math.max(1, sampleSize));
+            int stripRows = Math.max(1, TILE_STRIP_PIXELS / Math.max(1, area.width() / sample)) * sample;
+            int overlap = 2 * sample;
+
+            boolean swapSides = rotate == 90 || rotate == 270;
+            int outWidth = swapSides ? height : width;
+            int outHeight = swapSides ? width : height;
+            result = bitmapPool.get(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+            if (result == null) {
+                result = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+            } else {
+                result.eraseColor(Color.TRANSPARENT);
             }
-            if (this.correctOrientation && (rotate != 0)) {
-                Matrix matrix = new Matrix();
-                matrix.setRotate(rotate);
-                try {
-                    scaledBitmap = Bitmap.createBitmap(scaledBitmap, 0, 0, scaledBitmap.getWidth(), scaledBitmap.getHeight(), matrix, true);
-                    this.orientationCorrected = true;
-                } catch (OutOfMemoryError oom) {
-                    this.orientationCorrected = false;
+
+            // Maps the area onto the result, the same way transformBitmap maps a full decode
+            Matrix matrix = new Matrix();
+            matrix.setScale(width / (float) area.width(), height / (float) area.height());
+            matrix.postRotate(rotate);
+            RectF bounds = new RectF(0, 0, area.width(), area.height());
+            matrix.mapRect(bounds);
+            matrix.postTranslate(-bounds.left, -bounds.top);
+
+            Canvas canvas = new Canvas(result);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sample;
+            options.inMutable = true;
+            Rect stripArea = new Rect();
+            for (int top = 0; top < area.height(); top += stripRows) {
+                throwIfCancelled();
+                int bottom = Math.min(area.height(), top + stripRows);
+                int decodeTop = Math.max(0, top - overlap);
+                int decodeBottom = Math.min(area.height(), bottom + overlap);
+
+                // A strip of the same size as the previous one is decoded into it, which
+                // BitmapRegionDecoder does without changing its size
+                int previousHeight = stripArea.height();
+                stripArea.set(area.left, area.top + decodeTop, area.right, area.top + decodeBottom);
+                options.inBitmap = strip != null && previousHeight == stripArea.height() ? strip : null;
+                if (options.inBitmap == null) {
+                    bitmapPool.put(strip);
                 }
+                strip = decoder.decodeRegion(stripArea, options);
+                if (strip == null) {
+                    return null;
+                }
+                if (top == 0) {
+                    result.setHasAlpha(strip.hasAlpha());
+                }
+
+                Matrix stripMatrix = new Matrix();
+                stripMatrix.setScale(area.width() / (float) strip.getWidth(),
+                        (decodeBottom - decodeTop) / (float) strip.getHeight());
+                stripMatrix.postTranslate(0, decodeTop);
+                stripMatrix.postConcat(matrix);
+
+                RectF rows = new RectF(0, top, area.width(), bottom);
+                matrix.mapRect(rows);
+                canvas.save();
+                canvas.clipRect(rows);
+                canvas.drawBitmap(strip, stripMatrix, paint);
+                canvas.restore();
             }
-            return scaledBitmap;
+            Bitmap tiled = result;
+            result = null;
+            return tiled;
         } finally {
-            // delete the temporary copy
-            if (localFile != null) {
-                localFile.delete();
-            }
+            bitmapPool.put(strip);
+            bitmapPool.put(result);
+            decoder.recycle();
+            Trace.endSection();
         }
+    }
 
+    /**
+     * Maps a crop of the upright picture onto the pixels of the source, which are stored
+     * turned by the orientation in its exif data.
+     *
+     * @param crop the part of the upright picture to keep, as fractions of its width and height
+     * @param width the width of the source
+     * @param height the height of the source
+     * @param orientation the orientation of the source in degrees
+     * @return the region of the source to decode, at least one pixel in size
+     */
+    private static Rect getSourceRegion(RectF crop, int width, int height, int orientation) {
+        float left, top, right, bottom;
+        if (orientation == 90) {
+            left = crop.top;
+            top = 1 - crop.right;
+            right = crop.bottom;
+            bottom = 1 - crop.left;
+        } else if (orientation == 180) {
+            left = 1 - crop.right;
+            top = 1 - crop.bottom;
+            right = 1 - crop.left;
+            bottom = 1 - crop.top;
+        } else if (orientation == 270) {
+            left = 1 - crop.bottom;
+            top = crop.left;
+            right = 1 - crop.top;
+            bottom = crop.right;
+        } else {
+            left = crop.left;
+            top = crop.top;
+            right = crop.right;
+            bottom = crop.bottom;
+        }
+
+        int x = Math.min(width - 1, Math.round(left * width));
+        int y = Math.min(height - 1, Math.round(top * height));
+        return new Rect(x, y,
+                Math.max(x + 1, Math.min(width, Math.round(right * width))),
+                Math.max(y + 1, Math.min(height, Math.round(bottom * height))));
+    }
+
+    /**
+     * Scales and rotates the bitmap with one combined matrix into a single pooled destination,
+     * and returns the source to the pool.
+     *
+     * @param bitmap the bitmap to transform
+     * @param width the width to scale to, before rotation
+     * @param height the height to scale to, before rotation
+     * @param rotate the clockwise rotation in degrees, a multiple of 90
+     * @return the transformed bitmap, which is the source itself if no transform is needed
+     */
+    private Bitmap transformBitmap(Bitmap bitmap, int width, int height, int rotate) {
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height && rotate == 0) {
+            return bitmap;
+        }
+        boolean swapSides = rotate == 90 || rotate == 270;
+        int outWidth = swapSides ? height : width;
+        int outHeight = swapSides ? width : height;
+
+        Matrix matrix = new Matrix();
+        matrix.setScale(width / (float) bitmap.getWidth(), height / (float) bitmap.getHeight());
+        matrix.postRotate(rotate);
+        // Rotation is around the origin, move the result back into the destination
+        RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap transformed = bitmapPool.get(outWidth, outHeight, config);
+        if (transformed == null) {
+            transformed = Bitmap.createBitmap(outWidth, outHeight, config);
+        } else if (bitmap.hasAlpha()) {
+            transformed.eraseColor(Color.TRANSPARENT);
+        }
+        transformed.setHasAlpha(bitmap.hasAlpha());
+
+        Canvas canvas = new Canvas(transformed);
+        canvas.drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        bitmapPool.put(bitmap);
+        return transformed;
     }
 
     /**
@@ -1156,11 +2333,13 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      *
      * @param origWidth
      * @param origHeight
+     * @param targetWidth
+     * @param targetHeight
      * @return
      */
-    public int[] calculateAspectRatio(int origWidth, int origHeight) {
-        int newWidth = this.targetWidth;
-        int newHeight = this.targetHeight;
+    public static int[] calculateAspectRatio(int origWidth, int origHeight, int targetWidth, int targetHeight) {
+        int newWidth = targetWidth;
+        int newHeight = targetHeight;
 
         // If no new width or height were specified return the original bitmap
         if (newWidth <= 0 && newHeight <= 0) {
@@ -1199,8 +2378,9 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     }
 
     /**
-     * Figure out what ratio we can load our image into memory at while still being bigger than
-     * our desired width and height
+     * Figure out the largest power of two we can sample our image down by while it is still at
+     * least as big as our desired width and height. Decoders round any other sample size down
+     * to a power of two, so it would only make the decode larger than planned for.
      *
      * @param srcWidth
      * @param srcHeight
@@ -1212,73 +2392,128 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
         final float srcAspect = (float) srcWidth / (float) srcHeight;
         final float dstAspect = (float) dstWidth / (float) dstHeight;
 
+        int ratio;
         if (srcAspect > dstAspect) {
-            return srcWidth / dstWidth;
+            ratio = srcWidth / dstWidth;
         } else {
-            return srcHeight / dstHeight;
+            ratio = srcHeight / dstHeight;
         }
+        return Integer.highestOneBit(Math.max(1, ratio));
     }
 
     /**
-     * Creates a cursor that can be used to determine how many images we have.
+     * Sets inDensity and inTargetDensity so that BitmapFactory scales the sampled image down to
+     * the given width as it decodes it. The height follows from the aspect ratio, so the decode
+     * comes out at the target size, give or take a pixel of rounding.
      *
+     * @param options the bounds of the source and the sample size to decode at
+     * @param width the width to decode to, before rotation
+     */
+    private static void setDecodeScale(BitmapFactory.Options options, int width) {
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        if (width > 0 && width < sampledWidth) {
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = width;
+        }
+    }
+
+    /**
+     * Creates a cursor over the ids of the images added after the given one, newest first.
+     *
+     * @param contentStore the content store to query
+     * @param afterId the id of the newest image to leave out
+     * @param limit the maximum number of rows to return
      * @return a cursor
      */
-    private Cursor queryImgDB(Uri contentStore) {
-        return this.cordova.getActivity().getContentResolver().query(
-                contentStore,
-                new String[]{MediaStore.Images.Media._ID},
-                null,
-                null,
-                null);
+    private Cursor queryImgDB(Uri contentStore, long afterId, int limit) {
+        String selection = MediaStore.Images.Media._ID + " > ?";
+        String[] selectionArgs = new String[]{Long.toString(afterId)};
+        String[] projection = new String[]{MediaStore.Images.Media._ID};
+        ContentResolver resolver = this.cordova.getActivity().getContentResolver();
+
+        // Android 11 rejects a LIMIT in the sort order, and only honours it as a query argument
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.Images.Media._ID + " DESC");
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+            return resolver.query(contentStore, projection, queryArgs, null);
+        }
+        return resolver.query(contentStore, projection, selection, selectionArgs,
+                MediaStore.Images.Media._ID + " DESC LIMIT " + limit);
+    }
+
+    /**
+     * @return the id of the newest image in the content store, 0 if there is none
+     */
+    private long queryLatestImageId(Uri contentStore) {
+        Cursor cursor = queryImgDB(contentStore, 0, 1);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID)) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * Cleans up after picture taking. Checking for duplicates and that kind of stuff.
      *
+     * @param request
      * @param newImage
      */
-    private void cleanup(int imageType, Uri oldImage, Uri newImage, Bitmap bitmap) {
+    private void cleanup(CameraRequest request, int imageType, Uri newImage, Bitmap bitmap) {
         if (bitmap != null) {
-            bitmap.recycle();
+            bitmapPool.put(bitmap);
         }
+        LOG.d(LOG_TAG, "Bitmap pool: " + bitmapPool.getHitCount() + " hits, " + bitmapPool.getMissCount() + " misses, "
+                + bitmapPool.getCurrentSize() + " bytes held");
 
         // Clean up initial camera-written image file.
-        (new File(FileHelper.stripFileProtocol(oldImage.toString()))).delete();
+        (new File(request.getImageFilePath())).delete();
 
-        checkForDuplicateImage(imageType);
+        checkForDuplicateImage(request, imageType);
         // Scan for the gallery to update pic refs in gallery
-        if (this.saveToPhotoAlbum && newImage != null) {
+        if (request.isSaveToPhotoAlbum() && newImage != null) {
             this.scanForGallery(newImage);
         }
-
-        System.gc();
     }
 
     /**
      * Used to find out if we are in a situation where the Camera Intent adds to images
-     * to the content store. If we are using a FILE_URI and the number of images in the DB
-     * increases by 2 we have a duplicate, when using a DATA_URL the number is 1.
+     * to the content store. If we are using a FILE_URI and 2 images were added since the
+     * capture started we have a duplicate, when using a DATA_URL the number is 1.
+     * Only the images newer than the one recorded before the capture are queried.
      *
+     * @param request the request the image was captured for
      * @param type FILE_URI or DATA_URL
      */
-    private void checkForDuplicateImage(int type) {
+    private void checkForDuplicateImage(CameraRequest request, int type) {
         int diff = 1;
         Uri contentStore = whichContentStore();
-        Cursor cursor = queryImgDB(contentStore);
-        int currentNumOfImages = cursor.getCount();
 
-        if (type == FILE_URI && this.saveToPhotoAlbum) {
+        if (type == FILE_URI && request.isSaveToPhotoAlbum()) {
             diff = 2;
         }
 
+        // Ask for one more than expected, to tell when other images were added in the meantime
+        Cursor cursor = queryImgDB(contentStore, request.getLatestImageId(), diff + 1);
+        if (cursor == null) {
+            return;
+        }
+
         // delete the duplicate file if the difference is 2 for file URI or 1 for Data URL
-        if ((currentNumOfImages - numPics) == diff) {
-            cursor.moveToLast();
-            int id = Integer.valueOf(cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media._ID)));
-            if (diff == 2) {
-                id--;
+        try {
+            if (cursor.getCount() != diff) {
+                return;
             }
+            // Newest first, so the last row is the older of the two images when there is a duplicate
+            cursor.moveToLast();
+            long id = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID));
             Uri uri = Uri.parse(contentStore + "/" + id);
             try {
                 this.cordova.getActivity().getContentResolver().delete(uri, null, null);
@@ -1306,6 +2541,7 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
                     throw new RuntimeException(securityException.getMessage(), securityException);
                 }
             }
+        } finally {
             cursor.close();
         }
     }
@@ -1326,73 +2562,127 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
     /**
      * Compress bitmap using jpeg, convert to Base64 encoded string, and return to JavaScript.
      *
+     * The bitmap is compressed straight into a Base64 encoding stream, so the compressed bytes
+     * never need to be held on the heap by themselves.
+     *
+     * @param request
      * @param bitmap
      */
-    public void processPicture(Bitmap bitmap, int encodingType) {
-        ByteArrayOutputStream jpeg_data = new ByteArrayOutputStream();
+    public void processPicture(CameraRequest request, Bitmap bitmap) {
+        if (request.isChunkedDataUrl()) {
+            this.processPictureInChunks(request, bitmap);
+            return;
+        }
+
+        try {
+            String js_out = encodePicture(request, bitmap);
+            request.getCallbackContext().success(js_out);
+            js_out = null;
+        } catch (IOException e) {
+            this.failPicture(request, e.getMessage());
+        }
+    }
+
+    /**
+     * Compress bitmap and convert it to a Base64 encoded string.
+     *
+     * @param request
+     * @param bitmap
+     * @return the Base64 encoded image
+     * @throws IOException with the error to send back if the image can't be compressed
+     */
+    private String encodePicture(CameraRequest request, Bitmap bitmap) throws IOException {
+        int encodingType = request.getEncodingType();
         CompressFormat compressFormat = getCompressFormatForEncodingType(encodingType);
+        Base64StringOutputStream base64_data = new Base64StringOutputStream(estimateCompressedSize(bitmap, encodingType));
 
         try {
-            if (bitmap.compress(compressFormat, mQuality, jpeg_data)) {
-                byte[] code = jpeg_data.toByteArray();
-                byte[] output = Base64.encode(code, Base64.NO_WRAP);
-                String js_out = new String(output);
-                this.callbackContext.success(js_out);
-                js_out = null;
-                output = null;
-                code = null;
+            if (!bitmap.compress(compressFormat, getCompressQuality(request), base64_data)) {
+                throw new IOException("Error compressing image.");
             }
+        } catch (IOException e) {
+            throw e;
         } catch (Exception e) {
-            this.failPicture("Error compressing image: "+e.getLocalizedMessage());
+            throw new IOException("Error compressing image: "+e.getLocalizedMessage());
         }
-        jpeg_data = null;
+        return base64_data.toString();
     }
 
     /**
-     * Send error message to JavaScript.
+     * Compress bitmap and stream it back to JavaScript as a series of binary chunks, which
+     * www/Camera.js assembles into a Blob.
      *
-     * @param err
+     * @param request
+     * @param bitmap
      */
-    public void failPicture(String err) {
-        this.callbackContext.error(err);
-    }
+    private void processPictureInChunks(CameraRequest request, Bitmap bitmap) {
+        int encodingType = request.getEncodingType();
+        CompressFormat compressFormat = getCompressFormatForEncodingType(encodingType);
+        String mimeType = getMimetypeForEncodingType(encodingType);
 
-    private void scanForGallery(Uri newImage) {
-        this.scanMe = newImage;
-        if (this.conn != null) {
-            this.conn.disconnect();
+        try {
+            ChunkedResultOutputStream chunks = new ChunkedResultOutputStream(request.getCallbackContext(), mimeType, getChunkSize());
+            if (bitmap.compress(compressFormat, getCompressQuality(request), chunks)) {
+                chunks.close();
+            } else {
+                this.failPicture(request, "Error compressing image.");
+            }
+        } catch (Exception e) {
+            this.failPicture(request, "Error compressing image: "+e.getLocalizedMessage());
         }
-        this.conn = new MediaScannerConnection(this.cordova.getActivity().getApplicationContext(), this);
-        conn.connect();
     }
 
-    public void onMediaScannerConnected() {
-        try {
-            this.conn.scanFile(this.scanMe.toString(), "image/*");
-        } catch (IllegalStateException e) {
-            LOG.e(LOG_TAG, "Can't scan file in MediaScanner after taking picture");
-        }
+    /**
+     * @return the size of the chunks of chunked data URL results, from the config.xml preference
+     */
+    private int getChunkSize() {
+        int chunkSize = preferences.getInteger(DATA_URL_CHUNK_SIZE_PREFERENCE, DEFAULT_DATA_URL_CHUNK_SIZE);
+        return chunkSize > 0 ? chunkSize : DEFAULT_DATA_URL_CHUNK_SIZE;
+    }
+
+    /**
+     * Rough upper estimate of the compressed size of a bitmap, used to size output buffers.
+     */
+    private int estimateCompressedSize(Bitmap bitmap, int encodingType) {
+        long pixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        // Camera photos compress to about 2 bits per pixel as JPEG or lossy WebP and 16 as PNG
+        long estimate = encodingType == JPEG || encodingType == WEBP ? pixels / 4 : pixels * 2;
+        return (int) Math.min(estimate, Integer.MAX_VALUE / 2);
+    }
 
+    /**
+     * Send error message to JavaScript.
+     *
+     * @param request the request that failed
+     * @param err
+     */
+    public void failPicture(CameraRequest request, String err) {
+        request.getCallbackContext().error(err);
     }
 
-    public void onScanCompleted(String path, Uri uri) {
-        this.conn.disconnect();
+    private void scanForGallery(Uri newImage) {
+        mediaScanQueue.scan(newImage, "image/*");
     }
 
     public void onRequestPermissionResult(int requestCode, String[] permissions,
                                           int[] grantResults) {
+        CameraRequest request = this.pendingRequest;
+        this.pendingRequest = null;
+        if (request == null) {
+            return;
+        }
         for (int r : grantResults) {
             if (r == PackageManager.PERMISSION_DENIED) {
-                this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, PERMISSION_DENIED_ERROR));
+                request.getCallbackContext().sendPluginResult(new PluginResult(PluginResult.Status.ERROR, PERMISSION_DENIED_ERROR));
                 return;
             }
         }
         switch (requestCode) {
             case TAKE_PIC_SEC:
-                takePicture(this.destType, this.encodingType);
+                takePicture(request);
                 break;
             case SAVE_TO_ALBUM_SEC:
-                this.getImage(this.srcType, this.destType);
+                this.getImage(request);
                 break;
         }
     }
@@ -1403,61 +2693,14 @@ public class CameraLauncher extends CordovaPlugin implements MediaScannerConnect
      * before we get the launched Activity's result.
      */
     public Bundle onSaveInstanceState() {
-        Bundle state = new Bundle();
-        state.putInt("destType", this.destType);
-        state.putInt("srcType", this.srcType);
-        state.putInt("mQuality", this.mQuality);
-        state.putInt("targetWidth", this.targetWidth);
-        state.putInt("targetHeight", this.targetHeight);
-        state.putInt("encodingType", this.encodingType);
-        state.putInt("mediaType", this.mediaType);
-        state.putInt("numPics", this.numPics);
-        state.putBoolean("allowEdit", this.allowEdit);
-        state.putBoolean("correctOrientation", this.correctOrientation);
-        state.putBoolean("saveToPhotoAlbum", this.saveToPhotoAlbum);
-
-        if (this.croppedUri != null) {
-            state.putString(CROPPED_URI_KEY, this.croppedFilePath);
-        }
-
-        if (this.imageUri != null) {
-            state.putString(IMAGE_URI_KEY, this.imageFilePath);
-        }
-
-        if (this.imageFilePath != null) {
-            state.putString(IMAGE_FILE_PATH_KEY, this.imageFilePath);
+        if (this.pendingRequest == null) {
+            return null;
         }
-
-        return state;
+        return this.pendingRequest.toBundle();
     }
 
     public void onRestoreStateForActivityResult(Bundle state, CallbackContext callbackContext) {
-        this.destType = state.getInt("destType");
-        this.srcType = state.getInt("srcType");
-        this.mQuality = state.getInt("mQuality");
-        this.targetWidth = state.getInt("targetWidth");
-        this.targetHeight = state.getInt("targetHeight");
-        this.encodingType = state.getInt("encodingType");
-        this.mediaType = state.getInt("mediaType");
-        this.numPics = state.getInt("numPics");
-        this.allowEdit = state.getBoolean("allowEdit");
-        this.correctOrientation = state.getBoolean("correctOrientation");
-        this.saveToPhotoAlbum = state.getBoolean("saveToPhotoAlbum");
-
-        if (state.containsKey(CROPPED_URI_KEY)) {
-            this.croppedUri = Uri.parse(state.getString(CROPPED_URI_KEY));
-        }
-
-        if (state.containsKey(IMAGE_URI_KEY)) {
-            //I have no idea what type of URI is being passed in
-            this.imageUri = Uri.parse(state.getString(IMAGE_URI_KEY));
-        }
-
-        if (state.containsKey(IMAGE_FILE_PATH_KEY)) {
-            this.imageFilePath = state.getString(IMAGE_FILE_PATH_KEY);
-        }
-
-        this.callbackContext = callbackContext;
+        this.pendingRequest = CameraRequest.fromBundle(state, callbackContext);
     }
 
     private boolean hasPermissions(String[] permissions) {
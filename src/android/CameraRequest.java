@@ -0,0 +1,500 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The options and the state of a single getPicture call.
+ *
+ * A request is immutable: the files created while it is in flight are added by taking a copy
+ * with the with* methods. This lets a request be handed to a worker thread while the plugin
+ * goes on to serve the next call.
+ */
+public class CameraRequest {
+    private static final int CAMERA = 1;
+    private static final int FILE_URI = 1;
+    private static final int JPEG = 0;
+    private static final int HEIF = 4;
+
+    private static final String CROPPED_URI_KEY = "croppedUri";
+    private static final String IMAGE_URI_KEY = "imageUri";
+    private static final String IMAGE_FILE_PATH_KEY = "imageFilePath";
+    private static final String CROP_RECT_KEY = "cropRect";
+    private static final String RENDITION_WIDTHS_KEY = "renditionWidths";
+    private static final String RENDITION_HEIGHTS_KEY = "renditionHeights";
+    private static final String RENDITION_QUALITIES_KEY = "renditionQualities";
+    private static final String RENDITION_ENCODING_TYPES_KEY = "renditionEncodingTypes";
+
+    private int quality;                    // Compression quality hint (0-100: 0=low quality & high compression, 100=compress of max quality)
+    private int destType;                   // Destination type
+    private int srcType;                    // Source type
+    private int targetWidth;                // desired width of the image, -1 if not specified
+    private int targetHeight;               // desired height of the image, -1 if not specified
+    private int encodingType;               // Type of encoding to use
+    private int mediaType;                  // What type of media to retrieve
+    private boolean allowEdit;              // Should we allow the user to crop the image.
+    private boolean correctOrientation;     // Should the pictures orientation be corrected
+    private boolean saveToPhotoAlbum;       // Should the picture be saved to the device's photo album
+    private boolean chunkedDataUrl;         // Should a DATA_URL result be sent in binary chunks
+    private boolean losslessOrientation;    // Should orientation be left to the EXIF tag when nothing else changes
+    private boolean multiple;               // Can several images be picked at once
+    private boolean saveProcessedToPhotoAlbum;  // Should the album get the processed picture rather than the original
+    private boolean previewFirst;           // Should the embedded thumbnail be sent ahead of the image
+    private boolean thumbnailOnly;          // Should only the embedded thumbnail be sent back
+    private RectF cropRect;                 // Part of the upright picture to keep, as fractions of its size, null to keep all of it
+    private List<RenditionVO> renditions = Collections.emptyList();  // Extra outputs made from the same decode
+
+    private CallbackContext callbackContext;
+    private long latestImageId;             // Id of the newest image in the content store before the capture
+    private Uri imageUri;                   // Uri of captured image
+    private String imageFilePath;           // File where the image is stored
+    private Uri croppedUri;
+    private String croppedFilePath;
+
+    private CameraRequest() {
+    }
+
+    private CameraRequest copy() {
+        CameraRequest request = new CameraRequest();
+        request.quality = quality;
+        request.destType = destType;
+        request.srcType = srcType;
+        request.targetWidth = targetWidth;
+        request.targetHeight = targetHeight;
+        request.encodingType = encodingType;
+        request.mediaType = mediaType;
+        request.allowEdit = allowEdit;
+        request.correctOrientation = correctOrientation;
+        request.saveToPhotoAlbum = saveToPhotoAlbum;
+        request.chunkedDataUrl = chunkedDataUrl;
+        request.losslessOrientation = losslessOrientation;
+        request.multiple = multiple;
+        request.saveProcessedToPhotoAlbum = saveProcessedToPhotoAlbum;
+        request.previewFirst = previewFirst;
+        request.thumbnailOnly = thumbnailOnly;
+        request.cropRect = cropRect;
+        request.renditions = renditions;
+        request.callbackContext = callbackContext;
+        request.latestImageId = latestImageId;
+        request.imageUri = imageUri;
+        request.imageFilePath = imageFilePath;
+        request.croppedUri = croppedUri;
+        request.croppedFilePath = croppedFilePath;
+        return request;
+    }
+
+    /**
+     * Creates a request from the arguments passed to the takePicture action.
+     *
+     * @param args the arguments, in the order www/Camera.js sends them
+     * @param callbackContext the callback of the call
+     * @return the request
+     * @throws JSONException if a required argument is missing
+     */
+    public static CameraRequest fromArgs(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        CameraRequest request = new CameraRequest();
+        request.callbackContext = callbackContext;
+        request.quality = args.getInt(0);
+        request.destType = args.getInt(1);
+        request.srcType = args.getInt(2);
+        request.targetWidth = args.getInt(3);
+        request.targetHeight = args.getInt(4);
+        request.encodingType = getOutputEncodingType(args.getInt(5), request.destType);
+        request.mediaType = args.getInt(6);
+        request.allowEdit = args.getBoolean(7);
+        request.correctOrientation = args.getBoolean(8);
+        request.saveToPhotoAlbum = args.getBoolean(9);
+        request.chunkedDataUrl = args.optBoolean(12, false);
+        request.losslessOrientation = args.optBoolean(13, false);
+        request.saveProcessedToPhotoAlbum = args.optBoolean(14, false);
+        request.previewFirst = args.optBoolean(16, false);
+        request.thumbnailOnly = args.optBoolean(17, false);
+
+        // If the user specifies a 0 or smaller width/height
+        // make it -1 so later comparisons succeed
+        if (request.targetWidth < 1) {
+            request.targetWidth = -1;
+        }
+        if (request.targetHeight < 1) {
+            request.targetHeight = -1;
+        }
+
+        // The crop is done by the plugin itself, so the crop activity isn't needed
+        JSONObject cropRect = args.optJSONObject(18);
+        if (cropRect != null) {
+            float x = (float) cropRect.optDouble("x", 0);
+            float y = (float) cropRect.optDouble("y", 0);
+            float left = Math.max(0, x);
+            float top = Math.max(0, y);
+            float right = Math.min(1, x + (float) cropRect.optDouble("width", 1));
+            float bottom = Math.min(1, y + (float) cropRect.optDouble("height", 1));
+            if (!(right > left && bottom > top)) {
+                throw new JSONException("The cropRect is empty");
+            }
+            request.cropRect = new RectF(left, top, right, bottom);
+            request.allowEdit = false;
+        }
+
+        // Renditions take the quality and the encoding of the request unless they set their own
+        JSONArray renditions = args.optJSONArray(15);
+        if (renditions != null && renditions.length() > 0) {
+            List<RenditionVO> list = new ArrayList<RenditionVO>();
+            for (int i = 0; i < renditions.length(); i++) {
+                JSONObject rendition = renditions.optJSONObject(i);
+                if (rendition == null) {
+                    throw new JSONException("Rendition " + i + " is not an object");
+                }
+                int width = rendition.optInt("targetWidth", -1);
+                int height = rendition.optInt("targetHeight", -1);
+                list.add(new RenditionVO(width < 1 ? -1 : width, height < 1 ? -1 : height,
+                        rendition.optInt("quality", request.quality),
+                        getOutputEncodingType(rendition.optInt("encodingType", request.encodingType), request.destType)));
+            }
+            request.renditions = Collections.unmodifiableList(list);
+            // The renditions are sent back together, as one result
+            request.chunkedDataUrl = false;
+        }
+
+        // We don't return full-quality PNG, WebP or HEIF files. The camera outputs a JPEG
+        // so requesting it in another format provides no actual benefit
+        if (request.targetHeight == -1 && request.targetWidth == -1 && request.quality == 100 &&
+                !request.correctOrientation && request.encodingType != JPEG && request.srcType == CAMERA) {
+            request.encodingType = JPEG;
+        }
+        return request;
+    }
+
+    /**
+     * HEIF can only be encoded to files, and only by devices with an encoder for it. Other
+     * results get a JPEG instead.
+     *
+     * @param encodingType the encoding type asked for
+     * @param destType the destination type of the request
+     * @return the encoding type to output
+     */
+    private static int getOutputEncodingType(int encodingType, int destType) {
+        if (encodingType == HEIF && (destType != FILE_URI || !HeifImageWriter.isSupported())) {
+            return JPEG;
+        }
+        return encodingType;
+    }
+
+    /**
+     * Saves the request, for when the CordovaActivity is killed while another Activity is shown.
+     */
+    public Bundle toBundle() {
+        Bundle state = new Bundle();
+        state.putInt("destType", this.destType);
+        state.putInt("srcType", this.srcType);
+        state.putInt("mQuality", this.quality);
+        state.putInt("targetWidth", this.targetWidth);
+        state.putInt("targetHeight", this.targetHeight);
+        state.putInt("encodingType", this.encodingType);
+        state.putInt("mediaType", this.mediaType);
+        state.putLong("latestImageId", this.latestImageId);
+        state.putBoolean("allowEdit", this.allowEdit);
+        state.putBoolean("correctOrientation", this.correctOrientation);
+        state.putBoolean("saveToPhotoAlbum", this.saveToPhotoAlbum);
+        state.putBoolean("chunkedDataUrl", this.chunkedDataUrl);
+        state.putBoolean("losslessOrientation", this.losslessOrientation);
+        state.putBoolean("multiple", this.multiple);
+        state.putBoolean("saveProcessedToPhotoAlbum", this.saveProcessedToPhotoAlbum);
+        state.putBoolean("previewFirst", this.previewFirst);
+        state.putBoolean("thumbnailOnly", this.thumbnailOnly);
+
+        if (this.cropRect != null) {
+            state.putFloatArray(CROP_RECT_KEY, new float[] { this.cropRect.left, this.cropRect.top, this.cropRect.right, this.cropRect.bottom });
+        }
+
+        if (!this.renditions.isEmpty()) {
+            int count = this.renditions.size();
+            int[] widths = new int[count];
+            int[] heights = new int[count];
+            int[] qualities = new int[count];
+            int[] encodingTypes = new int[count];
+            for (int i = 0; i < count; i++) {
+                RenditionVO rendition = this.renditions.get(i);
+                widths[i] = rendition.getTargetWidth();
+                heights[i] = rendition.getTargetHeight();
+                qualities[i] = rendition.getQuality();
+                encodingTypes[i] = rendition.getEncodingType();
+            }
+            state.putIntArray(RENDITION_WIDTHS_KEY, widths);
+            state.putIntArray(RENDITION_HEIGHTS_KEY, heights);
+            state.putIntArray(RENDITION_QUALITIES_KEY, qualities);
+            state.putIntArray(RENDITION_ENCODING_TYPES_KEY, encodingTypes);
+        }
+
+        if (this.croppedUri != null) {
+            state.putString(CROPPED_URI_KEY, this.croppedFilePath);
+        }
+
+        if (this.imageUri != null) {
+            state.putString(IMAGE_URI_KEY, this.imageFilePath);
+        }
+
+        if (this.imageFilePath != null) {
+            state.putString(IMAGE_FILE_PATH_KEY, this.imageFilePath);
+        }
+
+        return state;
+    }
+
+    /**
+     * Restores a request saved with toBundle.
+     *
+     * @param state the saved state
+     * @param callbackContext the callback the result should now be sent to
+     * @return the request
+     */
+    public static CameraRequest fromBundle(Bundle state, CallbackContext callbackContext) {
+        CameraRequest request = new CameraRequest();
+        request.destType = state.getInt("destType");
+        request.srcType = state.getInt("srcType");
+        request.quality = state.getInt("mQuality");
+        request.targetWidth = state.getInt("targetWidth");
+        request.targetHeight = state.getInt("targetHeight");
+        request.encodingType = state.getInt("encodingType");
+        request.mediaType = state.getInt("mediaType");
+        request.latestImageId = state.getLong("latestImageId");
+        request.allowEdit = state.getBoolean("allowEdit");
+        request.correctOrientation = state.getBoolean("correctOrientation");
+        request.saveToPhotoAlbum = state.getBoolean("saveToPhotoAlbum");
+        request.chunkedDataUrl = state.getBoolean("chunkedDataUrl");
+        request.losslessOrientation = state.getBoolean("losslessOrientation");
+        request.multiple = state.getBoolean("multiple");
+        request.saveProcessedToPhotoAlbum = state.getBoolean("saveProcessedToPhotoAlbum");
+        request.previewFirst = state.getBoolean("previewFirst");
+        request.thumbnailOnly = state.getBoolean("thumbnailOnly");
+
+        if (state.containsKey(CROP_RECT_KEY)) {
+            float[] cropRect = state.getFloatArray(CROP_RECT_KEY);
+            request.cropRect = new RectF(cropRect[0], cropRect[1], cropRect[2], cropRect[3]);
+        }
+
+        if (state.containsKey(RENDITION_WIDTHS_KEY)) {
+            int[] widths = state.getIntArray(RENDITION_WIDTHS_KEY);
+            int[] heights = state.getIntArray(RENDITION_HEIGHTS_KEY);
+            int[] qualities = state.getIntArray(RENDITION_QUALITIES_KEY);
+            int[] encodingTypes = state.getIntArray(RENDITION_ENCODING_TYPES_KEY);
+            List<RenditionVO> list = new ArrayList<RenditionVO>();
+            for (int i = 0; i < widths.length; i++) {
+                list.add(new RenditionVO(widths[i], heights[i], qualities[i], encodingTypes[i]));
+            }
+            request.renditions = Collections.unmodifiableList(list);
+        }
+
+        if (state.containsKey(CROPPED_URI_KEY)) {
+            request.croppedFilePath = state.getString(CROPPED_URI_KEY);
+            request.croppedUri = Uri.parse(request.croppedFilePath);
+        }
+
+        if (state.containsKey(IMAGE_URI_KEY)) {
+            //I have no idea what type of URI is being passed in
+            request.imageUri = Uri.parse(state.getString(IMAGE_URI_KEY));
+        }
+
+        if (state.containsKey(IMAGE_FILE_PATH_KEY)) {
+            request.imageFilePath = state.getString(IMAGE_FILE_PATH_KEY);
+        }
+
+        request.callbackContext = callbackContext;
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that lets several images be picked at once. Chunked results
+     * and previews are turned off, as they would be interleaved with the results of other images.
+     */
+    public CameraRequest withMultiple() {
+        CameraRequest request = copy();
+        request.multiple = true;
+        request.chunkedDataUrl = false;
+        request.previewFirst = false;
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that remembers the newest image in the content store
+     */
+    public CameraRequest withLatestImageId(long latestImageId) {
+        CameraRequest request = copy();
+        request.latestImageId = latestImageId;
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that captures to the given file
+     */
+    public CameraRequest withImageFile(String imageFilePath, Uri imageUri) {
+        CameraRequest request = copy();
+        request.imageFilePath = imageFilePath;
+        request.imageUri = imageUri;
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that crops to the given file, which may be null
+     */
+    public CameraRequest withCroppedFile(String croppedFilePath, Uri croppedUri) {
+        CameraRequest request = copy();
+        request.croppedFilePath = croppedFilePath;
+        request.croppedUri = croppedUri;
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that outputs the given rendition
+     */
+    public CameraRequest withRendition(RenditionVO rendition) {
+        CameraRequest request = copy();
+        request.targetWidth = rendition.getTargetWidth();
+        request.targetHeight = rendition.getTargetHeight();
+        request.quality = rendition.getQuality();
+        request.encodingType = rendition.getEncodingType();
+        request.renditions = Collections.emptyList();
+        return request;
+    }
+
+    /**
+     * @return a copy of this request that decodes to the given size, large enough for every rendition
+     */
+    public CameraRequest withTargetSize(int targetWidth, int targetHeight) {
+        CameraRequest request = copy();
+        request.targetWidth = targetWidth;
+        request.targetHeight = targetHeight;
+        return request;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getDestType() {
+        return destType;
+    }
+
+    public int getSrcType() {
+        return srcType;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    public int getEncodingType() {
+        return encodingType;
+    }
+
+    public int getMediaType() {
+        return mediaType;
+    }
+
+    public boolean isAllowEdit() {
+        return allowEdit;
+    }
+
+    public boolean isCorrectOrientation() {
+        return correctOrientation;
+    }
+
+    public boolean isSaveToPhotoAlbum() {
+        return saveToPhotoAlbum;
+    }
+
+    public boolean isChunkedDataUrl() {
+        return chunkedDataUrl;
+    }
+
+    public boolean isLosslessOrientation() {
+        return losslessOrientation;
+    }
+
+    public boolean isMultiple() {
+        return multiple;
+    }
+
+    public boolean isSaveProcessedToPhotoAlbum() {
+        return saveProcessedToPhotoAlbum;
+    }
+
+    public boolean isPreviewFirst() {
+        return previewFirst;
+    }
+
+    public boolean isThumbnailOnly() {
+        return thumbnailOnly;
+    }
+
+    /**
+     * @return the part of the upright picture to keep, as fractions of its width and height, or
+     * null to keep all of it
+     */
+    public RectF getCropRect() {
+        return cropRect;
+    }
+
+    public boolean hasRenditions() {
+        return !renditions.isEmpty();
+    }
+
+    public List<RenditionVO> getRenditions() {
+        return renditions;
+    }
+
+    public CallbackContext getCallbackContext() {
+        return callbackContext;
+    }
+
+    public long getLatestImageId() {
+        return latestImageId;
+    }
+
+    public Uri getImageUri() {
+        return imageUri;
+    }
+
+    public String getImageFilePath() {
+        return imageFilePath;
+    }
+
+    public Uri getCroppedUri() {
+        return croppedUri;
+    }
+
+    public String getCroppedFilePath() {
+        return croppedFilePath;
+    }
+}
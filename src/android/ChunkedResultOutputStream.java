@@ -0,0 +1,121 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * An OutputStream that sends everything written to it back to JavaScript as a series of binary
+ * (ArrayBuffer) plugin results of at most chunkSize bytes, keeping the callback alive in between.
+ *
+ * Closing the stream sends a final JSON result holding the mime type and the total size, which
+ * tells www/Camera.js to assemble the chunks into a Blob. Only one chunk is held in memory at a
+ * time, and the WebView never has to take the whole image in a single message. The chunks are
+ * not sent as raw bytes though: cordova-android Base64-encodes binary results for the bridge,
+ * and the WebView decodes them back into ArrayBuffers.
+ */
+public class ChunkedResultOutputStream extends OutputStream {
+    private final CallbackContext callbackContext;
+    private final String mimeType;
+    private final byte[] chunk;
+    private int count;
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param callbackContext the callback to send the chunks to
+     * @param mimeType the mime type of the data, sent with the final result
+     * @param chunkSize the maximum number of bytes per result
+     */
+    public ChunkedResultOutputStream(CallbackContext callbackContext, String mimeType, int chunkSize) {
+        this.callbackContext = callbackContext;
+        this.mimeType = mimeType;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        chunk[count++] = (byte) b;
+        if (count == chunk.length) {
+            sendChunk();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == chunk.length) {
+                sendChunk();
+            }
+        }
+    }
+
+    /**
+     * Sends the last partial chunk, followed by the final result.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            sendChunk();
+        }
+
+        JSONObject done = new JSONObject();
+        try {
+            done.put("type", mimeType);
+            done.put("size", size);
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, done));
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void sendChunk() {
+        // The result encodes its message right away, so the chunk buffer can be reused
+        byte[] data = count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+        PluginResult result = new PluginResult(PluginResult.Status.OK, data);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+        size += count;
+        count = 0;
+    }
+}
@@ -18,33 +18,71 @@
 */
 package org.apache.cordova.camera;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import android.media.ExifInterface;
 
+/**
+ * Carries the metadata of a JPEG over to its compressed copy.
+ *
+ * The application segments (APP1 to APP15) of the source, which hold the EXIF data, XMP, ICC
+ * color profiles and maker specific data, are read as raw bytes. Only the orientation and the
+ * pixel dimensions are parsed out of the EXIF data, so they can be patched in place. The
+ * segments are then written into the compressed JPEG while Bitmap.compress writes it, so the
+ * output is written once and nothing but those fields is changed.
+ */
 public class ExifHelper {
-    private String aperture = null;
-    private String datetime = null;
-    private String exposureTime = null;
-    private String flash = null;
-    private String focalLength = null;
-    private String gpsAltitude = null;
-    private String gpsAltitudeRef = null;
-    private String gpsDateStamp = null;
-    private String gpsLatitude = null;
-    private String gpsLatitudeRef = null;
-    private String gpsLongitude = null;
-    private String gpsLongitudeRef = null;
-    private String gpsProcessingMethod = null;
-    private String gpsTimestamp = null;
-    private String iso = null;
-    private String make = null;
-    private String model = null;
-    private String orientation = null;
-    private String whiteBalance = null;
-
-    private ExifInterface inFile = null;
-    private ExifInterface outFile = null;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP2 = 0xE2;
+    private static final int MARKER_APP14 = 0xEE;
+    private static final int MARKER_APP15 = 0xEF;
+
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_IMAGE_LENGTH = 0x0101;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    private static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    private static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+    private static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+    private static final byte[] XMP_HEADER = "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MPF_HEADER = { 'M', 'P', 'F', 0 };
+    private static final byte[] ADOBE_HEADER = { 'A', 'd', 'o', 'b', 'e' };
+    private static final byte[][] XMP_ORIENTATION_PREFIXES = {
+            "tiff:Orientation=\"".getBytes(StandardCharsets.US_ASCII),
+            "<tiff:Orientation>".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private InputStream inStream = null;
+
+    private final List<byte[]> segments = new ArrayList<byte[]>();  // Each including its marker and length
+    private byte[] exifSegment = null;
+    private byte[] xmpSegment = null;
+    private int tiffStart;                  // Offset of the TIFF header within exifSegment
+    private boolean littleEndian;
+    private int orientationOffset = -1;     // Offset of the orientation value within exifSegment
+    private final List<Integer> widthEntries = new ArrayList<Integer>();   // Offsets of the width tags
+    private final List<Integer> heightEntries = new ArrayList<Integer>();  // Offsets of the height tags
+    private int thumbnailLinkOffset = -1;   // Offset of the link from IFD0 to IFD1 within exifSegment
+    private long thumbnailOffset = -1;      // Offset of the embedded thumbnail from the TIFF header
+    private long thumbnailLength;
 
     /**
      * The file before it is compressed
@@ -53,133 +91,391 @@ public class ExifHelper {
      * @throws IOException
      */
     public void createInFile(String filePath) throws IOException {
-        this.inFile = new ExifInterface(filePath);
+        this.inStream = new FileInputStream(filePath);
     }
 
     /**
-     * The file after it has been compressed
+     * The image before it is compressed, when it is only available as a stream
      *
-     * @param filePath
+     * @param inputStream
      * @throws IOException
      */
-    public void createOutFile(String filePath) throws IOException {
-        this.outFile = new ExifInterface(filePath);
+    public void createInStream(InputStream inputStream) throws IOException {
+        this.inStream = inputStream;
     }
 
     /**
-     * Reads all the EXIF data from the input file.
+     * Reads the application segments from the input, which is closed afterwards. Only the
+     * headers of the JPEG are read, the input is left as soon as the image data is reached.
+     *
+     * @throws IOException
      */
-    public void readExifData() {
-        this.aperture = inFile.getAttribute(ExifInterface.TAG_APERTURE);
-        this.datetime = inFile.getAttribute(ExifInterface.TAG_DATETIME);
-        this.exposureTime = inFile.getAttribute(ExifInterface.TAG_EXPOSURE_TIME);
-        this.flash = inFile.getAttribute(ExifInterface.TAG_FLASH);
-        this.focalLength = inFile.getAttribute(ExifInterface.TAG_FOCAL_LENGTH);
-        this.gpsAltitude = inFile.getAttribute(ExifInterface.TAG_GPS_ALTITUDE);
-        this.gpsAltitudeRef = inFile.getAttribute(ExifInterface.TAG_GPS_ALTITUDE_REF);
-        this.gpsDateStamp = inFile.getAttribute(ExifInterface.TAG_GPS_DATESTAMP);
-        this.gpsLatitude = inFile.getAttribute(ExifInterface.TAG_GPS_LATITUDE);
-        this.gpsLatitudeRef = inFile.getAttribute(ExifInterface.TAG_GPS_LATITUDE_REF);
-        this.gpsLongitude = inFile.getAttribute(ExifInterface.TAG_GPS_LONGITUDE);
-        this.gpsLongitudeRef = inFile.getAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF);
-        this.gpsProcessingMethod = inFile.getAttribute(ExifInterface.TAG_GPS_PROCESSING_METHOD);
-        this.gpsTimestamp = inFile.getAttribute(ExifInterface.TAG_GPS_TIMESTAMP);
-        this.iso = inFile.getAttribute(ExifInterface.TAG_ISO);
-        this.make = inFile.getAttribute(ExifInterface.TAG_MAKE);
-        this.model = inFile.getAttribute(ExifInterface.TAG_MODEL);
-        this.orientation = inFile.getAttribute(ExifInterface.TAG_ORIENTATION);
-        this.whiteBalance = inFile.getAttribute(ExifInterface.TAG_WHITE_BALANCE);
+    public void readExifData() throws IOException {
+        if (this.inStream == null) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(this.inStream, 8192));
+        try {
+            if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != MARKER_SOI) {
+                return;
+            }
+            while (true) {
+                int marker = readMarker(in);
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return;
+                }
+                if (isStandalone(marker)) {
+                    continue;
+                }
+                int length = in.readUnsignedShort();
+                if (length < 2) {
+                    return;
+                }
+                if (marker < MARKER_APP1 || marker > MARKER_APP15) {
+                    skipFully(in, length - 2);
+                    continue;
+                }
+
+                byte[] segment = new byte[length + 2];
+                segment[0] = (byte) 0xFF;
+                segment[1] = (byte) marker;
+                segment[2] = (byte) (length >> 8);
+                segment[3] = (byte) length;
+                in.readFully(segment, 4, length - 2);
+                addSegment(marker, segment);
+            }
+        } catch (EOFException e) {
+            // A truncated file just has no (more) metadata
+        } finally {
+            this.inStream = null;
+            in.close();
+        }
+    }
+
+    private void addSegment(int marker, byte[] segment) {
+        // The multi-picture index points at images after the end of the file, which aren't
+        // copied, and the Adobe segment describes the color transform of the source encoder
+        if ((marker == MARKER_APP2 && startsWith(segment, 4, MPF_HEADER))
+                || (marker == MARKER_APP14 && startsWith(segment, 4, ADOBE_HEADER))) {
+            return;
+        }
+        if (marker == MARKER_APP1 && this.exifSegment == null && startsWith(segment, 4, EXIF_HEADER)) {
+            this.exifSegment = segment;
+            parseExif();
+        } else if (marker == MARKER_APP1 && this.xmpSegment == null && startsWith(segment, 4, XMP_HEADER)) {
+            this.xmpSegment = segment;
+        }
+        this.segments.add(segment);
     }
 
     /**
-     * Writes the previously stored EXIF data to the output file.
+     * Wraps the stream the compressed JPEG is written to, so that the segments read from the
+     * input are written into it. Segments of the encoder that they replace are left out.
      *
-     * @throws IOException
+     * @param out the stream to write the compressed JPEG to
+     * @return the stream to pass to Bitmap.compress, closing it closes out
      */
-    public void writeExifData() throws IOException {
-        // Don't try to write to a null file
-        if (this.outFile == null) {
-            return;
+    public OutputStream createOutputStream(OutputStream out) {
+        if (this.segments.isEmpty()) {
+            return out;
         }
+        return new JpegMetadataOutputStream(out, this.segments);
+    }
 
-        if (this.aperture != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_APERTURE, this.aperture);
-        }
-        if (this.datetime != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_DATETIME, this.datetime);
+    /**
+     * Returns the EXIF data for containers other than JPEG, such as HEIF. The orientation and the
+     * pixel dimensions are as patched so far.
+     *
+     * @return a copy of the EXIF data, starting with the Exif header, or null if there is none
+     */
+    public byte[] getExifData() {
+        if (this.exifSegment == null) {
+            return null;
         }
-        if (this.exposureTime != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_EXPOSURE_TIME, this.exposureTime);
+        return Arrays.copyOfRange(this.exifSegment, 4, this.exifSegment.length);
+    }
+
+    /**
+     * @return the orientation tag as it is stored, ExifInterface.ORIENTATION_UNDEFINED if there is none
+     */
+    public int getOrientationTag() {
+        if (this.orientationOffset < 0) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
         }
-        if (this.flash != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_FLASH, this.flash);
+        return readShort(this.orientationOffset);
+    }
+
+    public int getOrientation() {
+        if (this.orientationOffset < 0) {
+            return 0;
         }
-        if (this.focalLength != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_FOCAL_LENGTH, this.focalLength);
+        int o = readShort(this.orientationOffset);
+
+        if (o == ExifInterface.ORIENTATION_NORMAL) {
+            return 0;
+        } else if (o == ExifInterface.ORIENTATION_ROTATE_90) {
+            return 90;
+        } else if (o == ExifInterface.ORIENTATION_ROTATE_180) {
+            return 180;
+        } else if (o == ExifInterface.ORIENTATION_ROTATE_270) {
+            return 270;
+        } else {
+            return 0;
         }
-        if (this.gpsAltitude != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_ALTITUDE, this.gpsAltitude);
+    }
+
+    /**
+     * Returns the JPEG thumbnail embedded in IFD1 of the EXIF data, which cameras write so
+     * that a preview can be shown without decoding the image itself. The thumbnail has the
+     * orientation of the image, it is not turned upright.
+     *
+     * @return a copy of the thumbnail, or null if there is none
+     */
+    public byte[] getThumbnail() {
+        if (this.thumbnailOffset < 0 || this.thumbnailLength < 2) {
+            return null;
         }
-        if (this.gpsAltitudeRef != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_ALTITUDE_REF, this.gpsAltitudeRef);
+        long start = this.tiffStart + this.thumbnailOffset;
+        if (start + this.thumbnailLength > this.exifSegment.length) {
+            return null;
         }
-        if (this.gpsDateStamp != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_DATESTAMP, this.gpsDateStamp);
+        byte[] thumbnail = Arrays.copyOfRange(this.exifSegment, (int) start, (int) (start + this.thumbnailLength));
+        if ((thumbnail[0] & 0xFF) != 0xFF || (thumbnail[1] & 0xFF) != MARKER_SOI) {
+            return null;
         }
-        if (this.gpsLatitude != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_LATITUDE, this.gpsLatitude);
+        return thumbnail;
+    }
+
+    /**
+     * Sets the orientation to normal, by patching its value in the EXIF data and in the XMP.
+     * The thumbnail in IFD1 still has the old orientation, so IFD1 is unlinked from IFD0 and
+     * readers no longer find it.
+     */
+    public void resetOrientation() {
+        if (this.orientationOffset >= 0) {
+            int tag = readShort(this.orientationOffset);
+            if (tag != ExifInterface.ORIENTATION_NORMAL && tag != ExifInterface.ORIENTATION_UNDEFINED
+                    && this.thumbnailLinkOffset >= 0) {
+                writeShort(this.thumbnailLinkOffset, 0);
+                writeShort(this.thumbnailLinkOffset + 2, 0);
+            }
+            writeShort(this.orientationOffset, ExifInterface.ORIENTATION_NORMAL);
         }
-        if (this.gpsLatitudeRef != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_LATITUDE_REF, this.gpsLatitudeRef);
+        if (this.xmpSegment != null) {
+            patchXmpOrientation();
         }
-        if (this.gpsLongitude != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_LONGITUDE, this.gpsLongitude);
+    }
+
+    /**
+     * Sets the image width and height in the EXIF data to the size of the compressed image.
+     *
+     * @param width
+     * @param height
+     */
+    public void setPixelDimensions(int width, int height) {
+        for (int entry : this.widthEntries) {
+            writeValue(entry, width);
         }
-        if (this.gpsLongitudeRef != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_LONGITUDE_REF, this.gpsLongitudeRef);
+        for (int entry : this.heightEntries) {
+            writeValue(entry, height);
         }
-        if (this.gpsProcessingMethod != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_PROCESSING_METHOD, this.gpsProcessingMethod);
+    }
+
+    /**
+     * Finds the tags to patch in IFD0 and the Exif IFD of the TIFF structure in the segment.
+     */
+    private void parseExif() {
+        this.tiffStart = 4 + EXIF_HEADER.length;
+        if (this.exifSegment.length < this.tiffStart + 8) {
+            return;
         }
-        if (this.gpsTimestamp != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_GPS_TIMESTAMP, this.gpsTimestamp);
+        this.littleEndian = this.exifSegment[this.tiffStart] == 'I';
+
+        long ifd0 = readInt(this.tiffStart + 4);
+        int exifIfd = parseIfd(ifd0);
+        if (exifIfd > 0) {
+            parseIfd(exifIfd);
         }
-        if (this.iso != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_ISO, this.iso);
+        this.thumbnailLinkOffset = findIfdLink(ifd0);
+        if (this.thumbnailLinkOffset >= 0) {
+            parseThumbnailIfd(readInt(this.thumbnailLinkOffset));
         }
-        if (this.make != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_MAKE, this.make);
+    }
+
+    /**
+     * @return the offset within exifSegment of the link to the IFD that follows the IFD at the
+     * given offset from the TIFF header, or -1 if it is out of bounds
+     */
+    private int findIfdLink(long offset) {
+        if (offset < 8 || this.tiffStart + offset + 2 > this.exifSegment.length) {
+            return -1;
         }
-        if (this.model != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_MODEL, this.model);
+        int ifd = this.tiffStart + (int) offset;
+        int link = ifd + 2 + readShort(ifd) * 12;
+        if (link + 4 > this.exifSegment.length) {
+            return -1;
         }
-        if (this.orientation != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_ORIENTATION, this.orientation);
+        return link;
+    }
+
+    /**
+     * Records where the JPEG thumbnail is, from IFD1. The other tags of IFD1 describe the
+     * thumbnail and are left alone when the image is patched.
+     */
+    private void parseThumbnailIfd(long offset) {
+        if (offset < 8 || this.tiffStart + offset + 2 > this.exifSegment.length) {
+            return;
         }
-        if (this.whiteBalance != null) {
-            this.outFile.setAttribute(ExifInterface.TAG_WHITE_BALANCE, this.whiteBalance);
+        int ifd = this.tiffStart + (int) offset;
+        int entries = readShort(ifd);
+        long thumbnailOffset = -1;
+        long thumbnailLength = 0;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > this.exifSegment.length) {
+                break;
+            }
+            int tag = readShort(entry);
+            int type = readShort(entry + 2);
+            if (readInt(entry + 4) != 1 || (type != TYPE_SHORT && type != TYPE_LONG)) {
+                continue;
+            }
+            long value = type == TYPE_SHORT ? readShort(entry + 8) : readInt(entry + 8);
+            if (tag == TAG_JPEG_INTERCHANGE_FORMAT) {
+                thumbnailOffset = value;
+            } else if (tag == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                thumbnailLength = value;
+            }
         }
+        this.thumbnailOffset = thumbnailOffset;
+        this.thumbnailLength = thumbnailLength;
+    }
 
-        this.outFile.saveAttributes();
+    /**
+     * Records the offsets of the tags to patch in the IFD at the given offset from the TIFF header.
+     *
+     * @return the offset of the Exif IFD if this IFD points to one, or 0
+     */
+    private int parseIfd(long offset) {
+        int exifIfd = 0;
+        if (offset < 8 || this.tiffStart + offset + 2 > this.exifSegment.length) {
+            return exifIfd;
+        }
+        int ifd = this.tiffStart + (int) offset;
+        int entries = readShort(ifd);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > this.exifSegment.length) {
+                break;
+            }
+            int tag = readShort(entry);
+            int type = readShort(entry + 2);
+            if (readInt(entry + 4) != 1) {
+                continue;
+            }
+            if (tag == TAG_ORIENTATION && type == TYPE_SHORT) {
+                // A single SHORT is stored in the first two bytes of the value field
+                this.orientationOffset = entry + 8;
+            } else if ((tag == TAG_IMAGE_WIDTH || tag == TAG_PIXEL_X_DIMENSION) && (type == TYPE_SHORT || type == TYPE_LONG)) {
+                this.widthEntries.add(entry);
+            } else if ((tag == TAG_IMAGE_LENGTH || tag == TAG_PIXEL_Y_DIMENSION) && (type == TYPE_SHORT || type == TYPE_LONG)) {
+                this.heightEntries.add(entry);
+            } else if (tag == TAG_EXIF_IFD_POINTER && type == TYPE_LONG) {
+                exifIfd = (int) Math.min(readInt(entry + 8), Integer.MAX_VALUE);
+            }
+        }
+        return exifIfd;
     }
 
-    public int getOrientation() {
-        int o = Integer.parseInt(this.orientation);
+    /**
+     * Patches tiff:Orientation in the XMP packet, which is a single digit in both the attribute
+     * and the element form, so the length of the packet doesn't change.
+     */
+    private void patchXmpOrientation() {
+        byte[] xmp = this.xmpSegment;
+        for (byte[] prefix : XMP_ORIENTATION_PREFIXES) {
+            for (int i = 4 + XMP_HEADER.length; i + prefix.length < xmp.length; i++) {
+                if (startsWith(xmp, i, prefix)) {
+                    int digit = i + prefix.length;
+                    if (xmp[digit] >= '0' && xmp[digit] <= '9') {
+                        xmp[digit] = (byte) ('0' + ExifInterface.ORIENTATION_NORMAL);
+                    }
+                }
+            }
+        }
+    }
 
-        if (o == ExifInterface.ORIENTATION_NORMAL) {
-            return 0;
-        } else if (o == ExifInterface.ORIENTATION_ROTATE_90) {
-            return 90;
-        } else if (o == ExifInterface.ORIENTATION_ROTATE_180) {
-            return 180;
-        } else if (o == ExifInterface.ORIENTATION_ROTATE_270) {
-            return 270;
+    private void writeValue(int entry, int value) {
+        if (readShort(entry + 2) == TYPE_SHORT) {
+            writeShort(entry + 8, Math.min(value, 0xFFFF));
         } else {
-            return 0;
+            writeShort(entry + (this.littleEndian ? 8 : 10), value & 0xFFFF);
+            writeShort(entry + (this.littleEndian ? 10 : 8), value >>> 16);
         }
     }
 
-    public void resetOrientation() {
-        this.orientation = "" + ExifInterface.ORIENTATION_NORMAL;
+    private int readShort(int offset) {
+        int b0 = this.exifSegment[offset] & 0xFF;
+        int b1 = this.exifSegment[offset + 1] & 0xFF;
+        return this.littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private long readInt(int offset) {
+        long high = readShort(this.littleEndian ? offset + 2 : offset);
+        long low = readShort(this.littleEndian ? offset : offset + 2);
+        return (high << 16) | low;
+    }
+
+    private void writeShort(int offset, int value) {
+        byte high = (byte) (value >> 8);
+        byte low = (byte) value;
+        this.exifSegment[offset] = this.littleEndian ? low : high;
+        this.exifSegment[offset + 1] = this.littleEndian ? high : low;
+    }
+
+    /**
+     * Reads the next marker, skipping any fill bytes before it.
+     */
+    private static int readMarker(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        if (b != 0xFF) {
+            throw new EOFException("Not a JPEG marker");
+        }
+        while (b == 0xFF) {
+            b = in.readUnsignedByte();
+        }
+        return b;
+    }
+
+    /**
+     * @return whether the marker has no length and payload
+     */
+    static boolean isStandalone(int marker) {
+        return marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7);
+    }
+
+    static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
     }
 }
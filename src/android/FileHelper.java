@@ -33,11 +33,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class FileHelper {
     private static final String LOG_TAG = "FileUtils";
     private static final String _DATA = "_data";
+    private static final String _ID = "_id";
+    private static final int MAX_SELECTION_ARGS = 500;  // SQLite allows 999 variables per statement
 
     /**
      * Returns the real path of the given URI string.
@@ -107,14 +114,7 @@ public class FileHelper {
                 final String[] split = docId.split(":");
                 final String type = split[0];
 
-                Uri contentUri = null;
-                if ("image".equals(type)) {
-                    contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                } else if ("video".equals(type)) {
-                    contentUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
-                } else if ("audio".equals(type)) {
-                    contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-                }
+                Uri contentUri = getMediaContentUri(type);
 
                 final String selection = "_id=?";
                 final String[] selectionArgs = new String[] {
@@ -144,6 +144,92 @@ public class FileHelper {
         return null;
     }
 
+    /**
+     * Returns the real paths of the given URIs, like getRealPath does for a single URI.
+     *
+     * @param uris the URIs of the audio/image/video files
+     * @param cordova the current application context
+     * @return the full path of every URI, null for the URIs whose path can't be found
+     */
+    public static Map<Uri, String> getRealPaths(List<Uri> uris, CordovaInterface cordova) {
+        return FileHelper.getRealPathsFromURIs(cordova.getActivity(), uris);
+    }
+
+    /**
+     * Returns the real paths of the given URIs. The URIs of rows of the same media store or
+     * downloads collection are resolved together with a single "_id IN (...)" query, rather than
+     * with one query per URI. Everything else, and the rows a query didn't return, is resolved
+     * one by one by getRealPathFromURI.
+     *
+     * @param context The context.
+     * @param uris The URIs to resolve.
+     * @return the full path of every URI, null for the URIs whose path can't be found
+     */
+    @SuppressLint("NewApi")
+    public static Map<Uri, String> getRealPathsFromURIs(final Context context, final List<Uri> uris) {
+        Map<Uri, String> paths = new HashMap<Uri, String>();
+        // The ids to look up in each collection, with the URIs that refer to each id
+        Map<String, Map<String, List<Uri>>> collections = new LinkedHashMap<String, Map<String, List<Uri>>>();
+
+        for (Uri uri : uris) {
+            if (paths.containsKey(uri)) {
+                continue;
+            }
+            Uri collection = null;
+            String id = null;
+
+            if (DocumentsContract.isDocumentUri(context, uri)) {
+                if (isDownloadsDocument(uri)) {
+                    id = DocumentsContract.getDocumentId(uri);
+                    collection = Uri.parse("content://downloads/public_downloads");
+                } else if (isMediaDocument(uri)) {
+                    final String[] split = DocumentsContract.getDocumentId(uri).split(":");
+                    if (split.length == 2) {
+                        id = split[1];
+                        collection = getMediaContentUri(split[0]);
+                    }
+                }
+            } else if ("content".equalsIgnoreCase(uri.getScheme()) && MediaStore.AUTHORITY.equals(uri.getAuthority())) {
+                // content://media/<volume>/<type>/media/<id>, the photo picker's URIs can't be queried that way
+                final List<String> segments = uri.getPathSegments();
+                if (segments.size() > 1 && !"picker".equals(segments.get(0))) {
+                    id = uri.getLastPathSegment();
+                    StringBuilder parent = new StringBuilder("content://").append(uri.getAuthority());
+                    for (int i = 0; i < segments.size() - 1; i++) {
+                        parent.append('/').append(segments.get(i));
+                    }
+                    collection = Uri.parse(parent.toString());
+                }
+            }
+
+            if (collection == null || !isRowId(id)) {
+                paths.put(uri, getRealPathFromURI(context, uri));
+                continue;
+            }
+            Map<String, List<Uri>> ids = collections.get(collection.toString());
+            if (ids == null) {
+                ids = new LinkedHashMap<String, List<Uri>>();
+                collections.put(collection.toString(), ids);
+            }
+            List<Uri> sameId = ids.get(id);
+            if (sameId == null) {
+                sameId = new ArrayList<Uri>();
+                ids.put(id, sameId);
+            }
+            sameId.add(uri);
+        }
+
+        for (Map.Entry<String, Map<String, List<Uri>>> entry : collections.entrySet()) {
+            getDataColumns(context, Uri.parse(entry.getKey()), entry.getValue(), paths);
+        }
+        for (Uri uri : uris) {
+            if (!paths.containsKey(uri)) {
+                paths.put(uri, getRealPathFromURI(context, uri));
+            }
+        }
+        return paths;
+    }
+
     /**
      * Returns an input stream based on given URI string.
      *
@@ -270,6 +356,82 @@ public class FileHelper {
         return null;
     }
 
+    /**
+     * Get the value of the data column of several rows of a collection, with one query for
+     * every MAX_SELECTION_ARGS rows. Rows that aren't found are left out of the paths.
+     *
+     * @param context The context.
+     * @param collection The Uri of the collection to query.
+     * @param ids The ids of the rows, with the Uris that refer to each row.
+     * @param paths Where to put the value of the data column of each Uri.
+     */
+    private static void getDataColumns(Context context, Uri collection, Map<String, List<Uri>> ids,
+                                       Map<Uri, String> paths) {
+        final String[] projection = {
+                _ID, _DATA
+        };
+        List<String> keys = new ArrayList<String>(ids.keySet());
+
+        for (int start = 0; start < keys.size(); start += MAX_SELECTION_ARGS) {
+            List<String> chunk = keys.subList(start, Math.min(keys.size(), start + MAX_SELECTION_ARGS));
+            StringBuilder selection = new StringBuilder(_ID).append(" IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+            }
+            selection.append(')');
+
+            Cursor cursor = null;
+            try {
+                cursor = context.getContentResolver().query(collection, projection, selection.toString(),
+                        chunk.toArray(new String[chunk.size()]), null);
+                if (cursor != null) {
+                    final int idIndex = cursor.getColumnIndexOrThrow(_ID);
+                    final int dataIndex = cursor.getColumnIndexOrThrow(_DATA);
+                    while (cursor.moveToNext()) {
+                        List<Uri> sameId = ids.get(cursor.getString(idIndex));
+                        if (sameId != null) {
+                            for (Uri uri : sameId) {
+                                paths.put(uri, cursor.getString(dataIndex));
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                // Some providers don't take a selection, their Uris are resolved one by one instead
+            } finally {
+                if (cursor != null)
+                    cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @param type The type of a media document: image, video or audio.
+     * @return The Uri of the media store collection of that type, or null.
+     */
+    private static Uri getMediaContentUri(String type) {
+        if ("image".equals(type)) {
+            return MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        } else if ("video".equals(type)) {
+            return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+        } else if ("audio".equals(type)) {
+            return MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        }
+        return null;
+    }
+
+    private static boolean isRowId(String id) {
+        if (id == null || id.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * @param uri The Uri to check.
      * @return Whether the Uri authority is ExternalStorageProvider.
@@ -0,0 +1,105 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies image files between streams.
+ *
+ * When both streams are backed by file descriptors, which includes the streams a ContentResolver
+ * opens on file based providers, the bytes are moved by FileChannel.transferTo and never copied
+ * into the Java heap. Anything else, such as pipes or assets, goes through a buffer that each
+ * thread keeps from one copy to the next. Streams over part of a file, like the ones opened
+ * for an AssetFileDescriptor, are subclasses of FileInputStream whose channel still covers the
+ * whole file, so only streams known to cover whole files use the channel.
+ */
+public class FileTransfer {
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private FileTransfer() {
+    }
+
+    /**
+     * Copies the rest of the input to the output. Neither stream is closed.
+     *
+     * @param in the stream to copy from
+     * @param out the stream to copy to
+     * @return the number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        long copied = 0;
+        if (isWholeFile(in) && out instanceof FileOutputStream) {
+            copied = transfer(((FileInputStream) in).getChannel(), ((FileOutputStream) out).getChannel());
+        }
+
+        // Whatever the channels couldn't transfer, which is all of it when the input isn't a file
+        byte[] buffer = buffers.get();
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+            copied += len;
+        }
+        return copied;
+    }
+
+    private static boolean isWholeFile(InputStream in) {
+        return in.getClass() == FileInputStream.class || in.getClass() == ParcelFileDescriptor.AutoCloseInputStream.class;
+    }
+
+    private static long transfer(FileChannel source, FileChannel target) throws IOException {
+        long start;
+        long size;
+        try {
+            start = source.position();
+            size = source.size();
+        } catch (IOException e) {
+            // Pipes and sockets can't seek, they are left to the buffered copy
+            return 0;
+        }
+        long position = start;
+        while (position < size) {
+            long transferred = source.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+        }
+        if (position > start) {
+            // transferTo leaves the position of the source alone
+            source.position(position);
+        }
+        return position - start;
+    }
+}
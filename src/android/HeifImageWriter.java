@@ -0,0 +1,115 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+
+import androidx.heifwriter.HeifWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes bitmaps to HEIF files.
+ *
+ * Bitmap.compress has no HEIF format. HeifWriter encodes the bitmap with the HEVC encoder of
+ * the device instead, and it can only write to a file, not to a stream. So HEIF is only used
+ * for file results, on Android P and later, and only when the device has an encoder for it.
+ */
+public class HeifImageWriter {
+    private static final long ENCODE_TIMEOUT_MS = 10000;
+
+    private static Boolean supported;
+
+    private HeifImageWriter() {
+    }
+
+    /**
+     * @return whether the device can encode HEIF images, which is looked up once
+     */
+    public static synchronized boolean isSupported() {
+        if (supported == null) {
+            supported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && hasEncoder();
+        }
+        return supported;
+    }
+
+    private static boolean hasEncoder() {
+        MediaCodecInfo[] codecs = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        for (MediaCodecInfo codec : codecs) {
+            if (!codec.isEncoder()) {
+                continue;
+            }
+            for (String type : codec.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(MediaFormat.MIMETYPE_IMAGE_ANDROID_HEIC)
+                        || type.equalsIgnoreCase(MediaFormat.MIMETYPE_VIDEO_HEVC)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes the bitmap to a HEIF file. The file is deleted if the bitmap can't be encoded.
+     *
+     * @param bitmap the image to encode
+     * @param quality the quality to encode at, from 0 to 100
+     * @param exifData the EXIF data to add, starting with the Exif header, or null
+     * @param file the file to write
+     * @throws IOException if the image could not be encoded
+     */
+    @TargetApi(Build.VERSION_CODES.P)
+    public static void write(Bitmap bitmap, int quality, byte[] exifData, File file) throws IOException {
+        HeifWriter writer = null;
+        boolean written = false;
+        try {
+            writer = new HeifWriter.Builder(file.getAbsolutePath(), bitmap.getWidth(), bitmap.getHeight(),
+                    HeifWriter.INPUT_MODE_BITMAP)
+                    .setQuality(quality)
+                    .setMaxImages(1)
+                    .build();
+            writer.start();
+            writer.addBitmap(bitmap);
+            if (exifData != null) {
+                writer.addExifData(0, exifData, 0, exifData.length);
+            }
+            // Waits for the encoder to finish writing the file
+            writer.stop(ENCODE_TIMEOUT_MS);
+            written = true;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // stop throws whatever the encoder failed with, or a TimeoutException
+            throw new IOException("Error encoding HEIF image: " + e.getMessage(), e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            if (!written) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the metadata of picked images, keyed by their URI string, so that picking
+ * the same image again doesn't have to query the content provider or read the image header.
+ *
+ * The least recently used entries are dropped first. Only images backed by a readable file are
+ * cached, and they are checked against the size and modification time of that file on every
+ * lookup, so a changed image is never served from the cache. Images of other providers have
+ * nothing to check against and are looked up again every time.
+ */
+public class ImageMetadataCache {
+    private final int maxEntries;
+    private final LinkedHashMap<String, ImageMetadataVO> entries;
+
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    /**
+     * @param maxEntries the maximum number of images to remember
+     */
+    public ImageMetadataCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, ImageMetadataVO>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ImageMetadataVO> eldest) {
+                if (size() > maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the metadata of the image, or null if it isn't cached or is out of date
+     */
+    public synchronized ImageMetadataVO get(String uriString) {
+        ImageMetadataVO metadata = entries.get(uriString);
+        if (metadata != null && !isCurrent(metadata)) {
+            entries.remove(uriString);
+            metadata = null;
+        }
+        if (metadata == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return metadata;
+    }
+
+    /**
+     * Caches the metadata of an image, unless it has no modification time to tell when it changes.
+     */
+    public synchronized void put(String uriString, ImageMetadataVO metadata) {
+        if (metadata.getLastModified() > 0) {
+            entries.put(uriString, metadata);
+        }
+    }
+
+    /**
+     * Drops what is cached for a changed URI. Other entries are left alone, as the modification
+     * time of their file already tells when they are out of date.
+     *
+     * @param uri the URI that changed
+     */
+    public synchronized void invalidate(Uri uri) {
+        entries.remove(uri.toString());
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of images currently cached
+     */
+    public synchronized int getCurrentSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxEntries;
+    }
+
+    private static boolean isCurrent(ImageMetadataVO metadata) {
+        if (metadata.getLastModified() <= 0) {
+            return false;
+        }
+        File file = new File(metadata.getRealPath());
+        return file.lastModified() == metadata.getLastModified() && file.length() == metadata.getSize();
+    }
+}
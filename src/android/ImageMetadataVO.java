@@ -0,0 +1,93 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+/**
+ * What is known about a picked image without decoding it. The size of the image and its
+ * orientation are only filled in once the image has been opened.
+ */
+public class ImageMetadataVO {
+    private final String realPath;          // Path of the file behind the URI, null if there is none
+    private final String mimeType;
+    private final long size;                // Size of the file in bytes, -1 if it can't be read
+    private final long lastModified;        // Last modification of the file, 0 if it can't be read
+    private final int width;                // Width of the image, -1 until known
+    private final int height;               // Height of the image, -1 until known
+    private final int orientation;          // Rotation from the exif data in degrees
+    private final int orientationTag;       // Orientation tag as stored in the exif data, 0 if there is none
+
+    public ImageMetadataVO(String realPath, String mimeType, long size, long lastModified) {
+        this(realPath, mimeType, size, lastModified, -1, -1, 0, 0);
+    }
+
+    private ImageMetadataVO(String realPath, String mimeType, long size, long lastModified,
+                            int width, int height, int orientation, int orientationTag) {
+        this.realPath = realPath;
+        this.mimeType = mimeType;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.orientationTag = orientationTag;
+    }
+
+    /**
+     * @return a copy of this metadata with the size and the orientation of the image
+     */
+    public ImageMetadataVO withImageInfo(int width, int height, int orientation, int orientationTag) {
+        return new ImageMetadataVO(realPath, mimeType, size, lastModified, width, height, orientation, orientationTag);
+    }
+
+    public String getRealPath() {
+        return realPath;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean hasImageInfo() {
+        return width > 0 && height > 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public int getOrientationTag() {
+        return orientationTag;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import org.apache.cordova.CordovaInterface;
+import org.apache.cordova.LOG;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The bytes of a source image, read from its URI exactly once.
+ *
+ * Plain files are used in place. Everything else (content providers, assets) is read into a
+ * single in-memory buffer, so that the bounds, the EXIF data and the sampled pixels can all be
+ * read from that one buffer instead of reopening the provider for every step. Only sources that
+ * are too large to buffer are spilled to a temporary file.
+ */
+public class ImageSource {
+    private static final String LOG_TAG = "ImageSource";
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    private final String filePath;    // Set when the source can be read in place from disk
+    private final byte[] data;        // Set when the source was read into memory
+    private final int length;
+    private final boolean temporary;  // Whether filePath is a spill file owned by this source
+
+    private ImageSource(String filePath, byte[] data, int length, boolean temporary) {
+        this.filePath = filePath;
+        this.data = data;
+        this.length = length;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Reads the image at the given URI string.
+     *
+     * @param uriString the URI string or file path of the image
+     * @param tempDirectory directory used when the source has to be spilled to disk
+     * @param cordova the current application context
+     * @return the source, or null if the URI could not be opened
+     * @throws IOException
+     */
+    public static ImageSource open(String uriString, String tempDirectory, CordovaInterface cordova) throws IOException {
+        File file = getLocalFile(uriString);
+        if (file != null && file.canRead()) {
+            return new ImageSource(file.getAbsolutePath(), null, (int) file.length(), false);
+        }
+
+        InputStream fileStream = FileHelper.getInputStreamFromUriString(uriString, cordova);
+        if (fileStream == null) {
+            return null;
+        }
+
+        try {
+            long limit = Runtime.getRuntime().maxMemory() / 8;
+            byte[] buffer = new byte[READ_CHUNK_SIZE];
+            int length = 0;
+            int read;
+            while ((read = fileStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    if (buffer.length * 2L > limit) {
+                        return spill(fileStream, buffer, length, tempDirectory);
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return new ImageSource(null, buffer, length, false);
+        } finally {
+            try {
+                fileStream.close();
+            } catch (IOException e) {
+                LOG.d(LOG_TAG, "Exception while closing file input stream.");
+            }
+        }
+    }
+
+    private static File getLocalFile(String uriString) {
+        if (uriString.startsWith("file:///android_asset/")) {
+            return null;
+        }
+        if (uriString.startsWith("file://")) {
+            int question = uriString.indexOf("?");
+            if (question > -1) {
+                uriString = uriString.substring(0, question);
+            }
+            return new File(FileHelper.stripFileProtocol(uriString));
+        }
+        if (uriString.startsWith("/")) {
+            return new File(uriString);
+        }
+        return null;
+    }
+
+    /**
+     * Writes what has been buffered so far, followed by the remainder of the stream, to a
+     * temporary file.
+     */
+    private static ImageSource spill(InputStream fileStream, byte[] buffered, int bufferedLength,
+                                     String tempDirectory) throws IOException {
+        File localFile = File.createTempFile("IMG_", ".tmp", new File(tempDirectory));
+        OutputStream os = new FileOutputStream(localFile);
+        try {
+            if (buffered != null) {
+                os.write(buffered, 0, bufferedLength);
+            }
+            FileTransfer.copy(fileStream, os);
+            os.flush();
+        } catch (IOException e) {
+            localFile.delete();
+            throw e;
+        } finally {
+            try {
+                os.close();
+            } catch (IOException e) {
+                LOG.d(LOG_TAG, "Exception while closing output stream.");
+            }
+        }
+        return new ImageSource(localFile.getAbsolutePath(), null, (int) localFile.length(), true);
+    }
+
+    /**
+     * @return the path of the file backing this source, or null if it is held in memory
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Opens a new stream over the source. Streams over in-memory sources don't need closing.
+     *
+     * @return a stream positioned at the start of the image
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        if (data != null) {
+            return new ByteArrayInputStream(data, 0, length);
+        }
+        return new FileInputStream(filePath);
+    }
+
+    /**
+     * Decodes the source with the given options, which may also just decode the bounds.
+     *
+     * @param options the BitmapFactory options to use
+     * @return the decoded bitmap, or null if the source could not be decoded or only the bounds were requested
+     */
+    public Bitmap decode(BitmapFactory.Options options) {
+        if (data != null) {
+            return BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+        return BitmapFactory.decodeFile(filePath, options);
+    }
+
+    /**
+     * Decodes only the given region of the source with BitmapRegionDecoder, so the memory and
+     * the time needed are proportional to the region instead of to the whole image.
+     *
+     * @param region the region to decode, in pixels of the source
+     * @param options the BitmapFactory options to use, with the sample size to decode at
+     * @return the decoded region, or null if it could not be decoded
+     * @throws IOException if the source is not supported by BitmapRegionDecoder
+     */
+    public Bitmap decodeRegion(Rect region, BitmapFactory.Options options) throws IOException {
+        BitmapRegionDecoder decoder = newRegionDecoder();
+        try {
+            return decoder.decodeRegion(region, options);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Creates a BitmapRegionDecoder over the source, for decoding several regions of it. Creating
+     * one reads through the whole image, so it should be reused for the regions of one decode.
+     *
+     * @return the decoder, which must be recycled once it is no longer used
+     * @throws IOException if the source is not supported by BitmapRegionDecoder
+     */
+    @SuppressWarnings("deprecation")
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        return data != null
+                ? BitmapRegionDecoder.newInstance(data, 0, length, false)
+                : BitmapRegionDecoder.newInstance(filePath, false);
+    }
+
+    /**
+     * Decodes the source straight to the given size with ImageDecoder, which samples and scales
+     * in a single native pass. Only available from Android P on.
+     *
+     * @param width the width of the bitmap to decode to
+     * @param height the height of the bitmap to decode to
+     * @return a mutable software bitmap of exactly width x height
+     * @throws IOException if the source could not be decoded
+     */
+    @TargetApi(Build.VERSION_CODES.P)
+    public Bitmap decode(final int width, final int height) throws IOException {
+        ImageDecoder.Source source = data != null
+                ? ImageDecoder.createSource(ByteBuffer.wrap(data, 0, length))
+                : ImageDecoder.createSource(new File(filePath));
+        return ImageDecoder.decodeBitmap(source, new ImageDecoder.OnHeaderDecodedListener() {
+            @Override
+            public void onHeaderDecoded(ImageDecoder decoder, ImageDecoder.ImageInfo info, ImageDecoder.Source source) {
+                // Software and mutable, so the bitmap can still be transformed and pooled
+                decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+                decoder.setMutableRequired(true);
+                decoder.setTargetSize(width, height);
+            }
+        });
+    }
+
+    /**
+     * Creates an ExifHelper reading from this source.
+     *
+     * @return an ExifHelper with the input set to this source
+     * @throws IOException
+     */
+    public ExifHelper createExifHelper() throws IOException {
+        ExifHelper exif = new ExifHelper();
+        if (data != null) {
+            exif.createInStream(openStream());
+        } else {
+            exif.createInFile(filePath);
+        }
+        return exif;
+    }
+
+    /**
+     * Releases the source, deleting the spill file if one was created.
+     */
+    public void close() {
+        if (temporary) {
+            new File(filePath).delete();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An OutputStream that a JPEG is written through, which inserts a list of application segments
+ * (EXIF, XMP, ICC profiles...) right after the start of image marker, or after the JFIF segment
+ * when the JPEG starts with one.
+ *
+ * The header segments written by the encoder are buffered one at a time, and those of the same
+ * kind as an inserted segment are left out, so the output never holds two EXIF blocks or color
+ * profiles. Once the image data starts everything is passed on unchanged.
+ */
+public class JpegMetadataOutputStream extends FilterOutputStream {
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MAX_IDENTIFIER_LENGTH = 32;
+
+    private static final int STATE_START = 0;           // Expecting the start of image marker
+    private static final int STATE_START_MARKER = 1;
+    private static final int STATE_PREFIX = 2;          // Expecting the 0xFF of the next marker
+    private static final int STATE_MARKER = 3;
+    private static final int STATE_LENGTH = 4;
+    private static final int STATE_PAYLOAD = 5;
+    private static final int STATE_PASS = 6;            // In the image data, or not a JPEG
+
+    private final List<byte[]> segments;
+    private final Set<String> replaced = new HashSet<String>();  // Kinds of the inserted segments
+
+    private int state = STATE_START;
+    private byte[] segment = new byte[1024];   // The encoder's segment being buffered
+    private int count;
+    private int length;                        // Of the buffered segment, including its marker
+    private boolean inserted;
+    private boolean sawSegment;
+
+    /**
+     * @param out the stream to write the JPEG to
+     * @param segments the complete segments to insert, each including its marker and length
+     */
+    public JpegMetadataOutputStream(OutputStream out, List<byte[]> segments) {
+        super(out);
+        this.segments = segments;
+        for (byte[] s : segments) {
+            replaced.add(kind(s, s.length));
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        b &= 0xFF;
+        switch (state) {
+            case STATE_START:
+                out.write(b);
+                state = b == 0xFF ? STATE_START_MARKER : STATE_PASS;
+                break;
+            case STATE_START_MARKER:
+                out.write(b);
+                state = b == MARKER_SOI ? STATE_PREFIX : STATE_PASS;
+                break;
+            case STATE_PREFIX:
+                if (b == 0xFF) {
+                    state = STATE_MARKER;
+                } else {
+                    // Not a well formed header, give up on changing it
+                    insert();
+                    out.write(b);
+                    state = STATE_PASS;
+                }
+                break;
+            case STATE_MARKER:
+                if (b == 0xFF) {
+                    break;  // Fill byte
+                }
+                if (b == MARKER_SOS || b == MARKER_EOI) {
+                    insert();
+                    out.write(0xFF);
+                    out.write(b);
+                    state = STATE_PASS;
+                } else if (ExifHelper.isStandalone(b)) {
+                    out.write(0xFF);
+                    out.write(b);
+                    state = STATE_PREFIX;
+                } else {
+                    segment[0] = (byte) 0xFF;
+                    segment[1] = (byte) b;
+                    count = 2;
+                    state = STATE_LENGTH;
+                }
+                break;
+            case STATE_LENGTH:
+                segment[count++] = (byte) b;
+                if (count == 4) {
+                    length = (((segment[2] & 0xFF) << 8) | (segment[3] & 0xFF)) + 2;
+                    if (length < 4) {
+                        insert();
+                        out.write(segment, 0, count);
+                        state = STATE_PASS;
+                    } else if (length == 4) {
+                        finishSegment();
+                    } else {
+                        if (segment.length < length) {
+                            segment = Arrays.copyOf(segment, length);
+                        }
+                        state = STATE_PAYLOAD;
+                    }
+                }
+                break;
+            case STATE_PAYLOAD:
+                segment[count++] = (byte) b;
+                if (count == length) {
+                    finishSegment();
+                }
+                break;
+            default:
+                out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (state != STATE_PASS && len > 0) {
+            if (state == STATE_PAYLOAD) {
+                // Copy the rest of the segment at once
+                int n = Math.min(len, length - count);
+                System.arraycopy(b, off, segment, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == length) {
+                    finishSegment();
+                }
+            } else {
+                write(b[off++]);
+                len--;
+            }
+        }
+        if (len > 0) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (state == STATE_LENGTH || state == STATE_PAYLOAD) {
+            // The encoder stopped in the middle of a segment, keep what it wrote
+            out.write(segment, 0, count);
+        }
+        super.close();
+    }
+
+    private void finishSegment() throws IOException {
+        state = STATE_PREFIX;
+        int marker = segment[1] & 0xFF;
+        if (!inserted && marker == MARKER_APP0 && !sawSegment) {
+            // JFIF wants its segment first
+            out.write(segment, 0, count);
+            sawSegment = true;
+            insert();
+            return;
+        }
+        sawSegment = true;
+        insert();
+        if (!replaced.contains(kind(segment, count))) {
+            out.write(segment, 0, count);
+        }
+    }
+
+    private void insert() throws IOException {
+        if (inserted) {
+            return;
+        }
+        inserted = true;
+        for (byte[] s : segments) {
+            out.write(s);
+        }
+    }
+
+    /**
+     * @return the marker of the segment followed by the identifier at the start of its payload,
+     * which tells apart the different uses of the same application marker
+     */
+    private static String kind(byte[] segment, int length) {
+        int end = 4;
+        while (end < length && end < 4 + MAX_IDENTIFIER_LENGTH && segment[end] != 0) {
+            end++;
+        }
+        return (segment[1] & 0xFF) + ":" + new String(segment, 4, end - 4, StandardCharsets.ISO_8859_1);
+    }
+}
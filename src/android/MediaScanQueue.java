@@ -0,0 +1,138 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.media.MediaScannerConnection.MediaScannerConnectionClient;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.apache.cordova.LOG;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds newly written files to the media store through a single MediaScannerConnection.
+ *
+ * The connection is opened by the first file queued and kept open while there are files left to
+ * scan, so a burst of pictures doesn't set up a connection for every one of them. Files queued
+ * while the connection is being set up are sent together once it is, and a file queued twice
+ * before it is sent is scanned once. The connection is closed after it has been idle for the
+ * given timeout.
+ */
+public class MediaScanQueue implements MediaScannerConnectionClient {
+    private static final String LOG_TAG = "MediaScanQueue";
+
+    private final Context context;
+    private final long idleTimeout;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, String> pending = new LinkedHashMap<String, String>();  // Path to mime type
+
+    private MediaScannerConnection conn;
+    private boolean connected;
+    private int scanning;               // Files sent to the scanner and not completed yet
+
+    private final Runnable disconnectIfIdle = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MediaScanQueue.this) {
+                if (scanning == 0 && pending.isEmpty()) {
+                    disconnect();
+                }
+            }
+        }
+    };
+
+    /**
+     * @param context the application context
+     * @param idleTimeout how long to keep the connection open once all files are scanned, in milliseconds
+     */
+    public MediaScanQueue(Context context, long idleTimeout) {
+        this.context = context;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Queues a file to be scanned.
+     *
+     * @param uri the file, as a file:// Uri
+     * @param mimeType the mime type of the file, or null to let the scanner find out
+     */
+    public synchronized void scan(Uri uri, String mimeType) {
+        pending.put(FileHelper.stripFileProtocol(uri.toString()), mimeType);
+        handler.removeCallbacks(disconnectIfIdle);
+        if (conn == null) {
+            conn = new MediaScannerConnection(context, this);
+            conn.connect();
+        } else if (connected) {
+            flush();
+        }
+    }
+
+    /**
+     * Closes the connection right away. Files that have not been sent to the scanner are dropped.
+     */
+    public synchronized void close() {
+        handler.removeCallbacks(disconnectIfIdle);
+        pending.clear();
+        disconnect();
+    }
+
+    @Override
+    public synchronized void onMediaScannerConnected() {
+        connected = true;
+        flush();
+    }
+
+    @Override
+    public synchronized void onScanCompleted(String path, Uri uri) {
+        scanning--;
+        if (scanning <= 0 && pending.isEmpty()) {
+            scanning = 0;
+            handler.postDelayed(disconnectIfIdle, idleTimeout);
+        }
+    }
+
+    private void flush() {
+        for (Map.Entry<String, String> file : pending.entrySet()) {
+            try {
+                conn.scanFile(file.getKey(), file.getValue());
+                scanning++;
+            } catch (IllegalStateException e) {
+                LOG.e(LOG_TAG, "Can't scan file in MediaScanner after taking picture");
+            }
+        }
+        pending.clear();
+        if (scanning == 0) {
+            handler.postDelayed(disconnectIfIdle, idleTimeout);
+        }
+    }
+
+    private void disconnect() {
+        if (conn != null) {
+            conn.disconnect();
+            conn = null;
+        }
+        connected = false;
+        scanning = 0;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+/**
+ * One of the renditions of a request: the size, quality and encoding of an extra output made
+ * from the same decode of the source.
+ */
+public class RenditionVO {
+    private final int targetWidth;      // desired width of the rendition, -1 if not specified
+    private final int targetHeight;     // desired height of the rendition, -1 if not specified
+    private final int quality;          // Compression quality hint (0-100)
+    private final int encodingType;     // Type of encoding to use
+
+    public RenditionVO(int targetWidth, int targetHeight, int quality, int encodingType) {
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.quality = quality;
+        this.encodingType = encodingType;
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public int getEncodingType() {
+        return encodingType;
+    }
+}
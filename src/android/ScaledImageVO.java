@@ -0,0 +1,48 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.camera;
+
+import android.graphics.Bitmap;
+
+/**
+ * A bitmap decoded for a request, together with what was learned about the source on the way.
+ */
+public class ScaledImageVO {
+    private final Bitmap bitmap;
+    private final ExifHelper exifData;            // Exif data from source, null if it has none
+    private final boolean orientationCorrected;   // Has the picture's orientation been corrected
+
+    public ScaledImageVO(Bitmap bitmap, ExifHelper exifData, boolean orientationCorrected) {
+        this.bitmap = bitmap;
+        this.exifData = exifData;
+        this.orientationCorrected = orientationCorrected;
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    public ExifHelper getExifData() {
+        return exifData;
+    }
+
+    public boolean isOrientationCorrected() {
+        return orientationCorrected;
+    }
+}
@@ -32,6 +32,16 @@ exports.defineAutoTests = function () {
             expect(navigator.camera.getPicture).toBeDefined();
             expect(typeof navigator.camera.getPicture === 'function').toBe(true);
         });
+
+        it('should contain a getPictures function', function () {
+            expect(navigator.camera.getPictures).toBeDefined();
+            expect(typeof navigator.camera.getPictures === 'function').toBe(true);
+        });
+
+        it('should contain a getCacheStats function', function () {
+            expect(navigator.camera.getCacheStats).toBeDefined();
+            expect(typeof navigator.camera.getCacheStats === 'function').toBe(true);
+        });
     });
 
     describe('Camera Constants (window.Camera + navigator.camera)', function () {
@@ -46,11 +56,17 @@ exports.defineAutoTests = function () {
             expect(navigator.camera.DestinationType.FILE_URI).toBe(1);
         });
 
-        it('camera.spec.3 should contain two EncodingType constants', function () {
+        it('camera.spec.3 should contain five EncodingType constants', function () {
             expect(Camera.EncodingType.JPEG).toBe(0);
             expect(Camera.EncodingType.PNG).toBe(1);
+            expect(Camera.EncodingType.WEBP).toBe(2);
+            expect(Camera.EncodingType.WEBP_LOSSLESS).toBe(3);
+            expect(Camera.EncodingType.HEIF).toBe(4);
             expect(navigator.camera.EncodingType.JPEG).toBe(0);
             expect(navigator.camera.EncodingType.PNG).toBe(1);
+            expect(navigator.camera.EncodingType.WEBP).toBe(2);
+            expect(navigator.camera.EncodingType.WEBP_LOSSLESS).toBe(3);
+            expect(navigator.camera.EncodingType.HEIF).toBe(4);
         });
 
         it('camera.spec.4 should contain three MediaType constants', function () {
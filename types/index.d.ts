@@ -28,14 +28,51 @@ interface Camera {
     /**
      * Takes a photo using the camera, or retrieves a photo from the device's image gallery.
      * @param cameraSuccess Success callback, that get the image
-     * as a base64-encoded String, or as the URI for the image file.
+     * as a base64-encoded String, or as the URI for the image file. With renditions, an array
+     * of them in the order of the renditions.
      * @param cameraError Error callback, that get an error message.
      * @param cameraOptions Optional parameters to customize the camera settings.
      */
+    getPicture(
+        cameraSuccess: (data: string[]) => void,
+        cameraError: (message: string) => void,
+        cameraOptions: CameraOptions & { renditions: CameraRendition[] }): void;
+    getPicture(
+        cameraSuccess: (data: string | Blob | CameraPreview) => void,
+        cameraError: (message: string) => void,
+        cameraOptions: CameraOptions & { chunkedDataUrl: true, previewFirst: true }): void;
+    getPicture(
+        cameraSuccess: (data: string | Blob) => void,
+        cameraError: (message: string) => void,
+        cameraOptions: CameraOptions & { chunkedDataUrl: true }): void;
+    getPicture(
+        cameraSuccess: (data: string | CameraPreview) => void,
+        cameraError: (message: string) => void,
+        cameraOptions: CameraOptions & { previewFirst: true }): void;
     getPicture(
         cameraSuccess: (data: string) => void,
         cameraError: (message: string) => void,
         cameraOptions?: CameraOptions): void;
+    /**
+     * Lets the user pick several images from the device's image gallery at once. Android only.
+     * @param cameraSuccess Success callback, called once for every image as soon as it is done,
+     * which is not necessarily in the order of the selection.
+     * @param cameraError Error callback, called when the selection itself fails.
+     * @param cameraOptions Optional parameters to customize how the images are processed.
+     * The source type defaults to PHOTOLIBRARY.
+     */
+    getPictures(
+        cameraSuccess: (result: CameraPicturesResult) => void,
+        cameraError: (message: string) => void,
+        cameraOptions?: CameraOptions): void;
+    /**
+     * Returns the counters of the caches used while processing images. Android only.
+     * @param onSuccess Success callback, that gets the counters.
+     * @param onError Error callback, that gets an error message.
+     */
+    getCacheStats(
+        onSuccess: (stats: CameraCacheStats) => void,
+        onError: (message: string) => void): void;
     // Next will work only on iOS
     //getPicture(
     //    cameraSuccess: (data: string) => void,
@@ -43,6 +80,39 @@ interface Camera {
     //    cameraOptions?: CameraOptions): CameraPopoverHandle;
 }
 
+/**
+ * One of the images picked with getPictures.
+ */
+interface CameraPicturesResult {
+    /** The position of the image in the selection. */
+    index: number;
+    /** The number of images selected. */
+    count: number;
+    /** The image, as a base64-encoded String or as the URI for the image file, or an array of them with renditions. */
+    data?: string | string[];
+    /** Why the image could not be processed, set instead of data. */
+    error?: string;
+}
+
+/**
+ * The counters of one of the caches returned by getCacheStats.
+ */
+interface CameraCacheCounters {
+    hits: number;
+    misses: number;
+    evictions: number;
+    /** The current size of the cache, in entries for the metadata cache and in bytes for the bitmap pool. */
+    size: number;
+    maxSize: number;
+}
+
+interface CameraCacheStats {
+    /** The metadata of picked images, remembered by URI. */
+    metadataCache: CameraCacheCounters;
+    /** The bitmaps reused from one picture to the next. */
+    bitmapPool: CameraCacheCounters;
+}
+
 interface CameraOptions {
     /** Picture quality in range 0-100. Default is 50 */
     quality?: number;
@@ -68,6 +138,9 @@ interface CameraOptions {
      * Defined in navigator.camera.EncodingType. Default is JPEG
      *      JPEG : 0    Return JPEG encoded image
      *      PNG : 1     Return PNG encoded image
+     *      WEBP : 2    Return lossy WebP encoded image (Android only)
+     *      WEBP_LOSSLESS : 3   Return lossless WebP encoded image (Android only)
+     *      HEIF : 4    Return HEIF encoded image (Android only, FILE_URI only, JPEG otherwise)
      */
     encodingType?: number;
     /**
@@ -102,6 +175,83 @@ interface CameraOptions {
     cameraDirection?: number;
     /** iOS-only options that specify popover location in iPad. Defined in CameraPopoverOptions. */
     popoverOptions?: CameraPopoverOptions;
+    /**
+     * Android only. With DATA_URL, pass the image to the success callback as a Blob instead of
+     * a base64-encoded string. The image is sent over in chunks of at most CameraDataUrlChunkSize
+     * bytes, so no single bridge message or string holds the whole image. cordova-android still
+     * base64-encodes each chunk in transit.
+     */
+    chunkedDataUrl?: boolean;
+    /**
+     * Android only. With correctOrientation, FILE_URI and no resizing or recompression,
+     * return the JPEG unchanged and leave the orientation to its EXIF tag instead of rotating the pixels.
+     */
+    losslessOrientation?: boolean;
+    /**
+     * Android only. With saveToPhotoAlbum and FILE_URI, save the resized or recompressed picture to the album
+     * instead of the original, writing both copies in a single compression pass. Only on Android 10 and later;
+     * when the picture is returned unchanged the original is saved as before.
+     */
+    saveProcessedToPhotoAlbum?: boolean;
+    /**
+     * Android only. Output several sizes of the picture from a single decode, for example a full size copy,
+     * a preview and a thumbnail. The success callback then gets an array with a result for every rendition,
+     * in the same order. chunkedDataUrl is ignored.
+     */
+    renditions?: CameraRendition[];
+    /**
+     * Android only. Send the thumbnail embedded in the EXIF data of a JPEG to the success callback first,
+     * before the picture is processed. The processed picture follows in a second call. Nothing is sent
+     * ahead if the picture has no embedded thumbnail.
+     */
+    previewFirst?: boolean;
+    /**
+     * Android only. Crop the picture in the plugin instead of with the crop activity used by allowEdit,
+     * which it replaces. Only the cropped part of the picture is decoded. targetWidth and targetHeight
+     * then apply to the crop.
+     */
+    cropRect?: CameraCropRect;
+    /**
+     * Android only. Return the thumbnail embedded in the EXIF data of a JPEG, always as a JPEG, instead of
+     * processing the picture. targetWidth, targetHeight, cropRect and renditions are ignored, and chunkedDataUrl returns
+     * the thumbnail as a Blob. The picture is processed as usual if it has no embedded thumbnail.
+     */
+    thumbnailOnly?: boolean;
+}
+
+/**
+ * The part of the upright picture to keep, for CameraOptions.cropRect. Android only.
+ * All values are fractions between 0 and 1 of the width or the height of the picture.
+ */
+interface CameraCropRect {
+    x: number;
+    y: number;
+    width: number;
+    height: number;
+}
+
+/**
+ * The early result of getPicture with CameraOptions.previewFirst. Android only.
+ */
+interface CameraPreview {
+    /** The embedded thumbnail, as a base64-encoded JPEG. */
+    preview: string;
+    /** The clockwise rotation in degrees the thumbnail still needs to be upright. */
+    orientation: number;
+}
+
+/**
+ * One of the renditions of CameraOptions.renditions. Android only.
+ */
+interface CameraRendition {
+    /** Width in pixels to scale the rendition to. Aspect ratio remains constant. */
+    targetWidth?: number;
+    /** Height in pixels to scale the rendition to. Aspect ratio remains constant. */
+    targetHeight?: number;
+    /** Quality of the rendition, 0-100. Defaults to the quality of the call. */
+    quality?: number;
+    /** Encoding of the rendition. Defaults to the encoding of the call. */
+    encodingType?: number;
 }
 
 /**
@@ -155,6 +305,9 @@ declare var Camera: {
     EncodingType: {
         JPEG: number;
         PNG: number;
+        WEBP: number;
+        WEBP_LOSSLESS: number;
+        HEIF: number;
     }
     MediaType: {
         PICTURE: number;
@@ -48,7 +48,7 @@ for (var key in Camera) {
 /**
  * Callback function that provides the image data.
  * @callback module:camera.onSuccess
- * @param {string} imageData - Base64 encoding of the image data, _or_ the image file URI, depending on [`cameraOptions`]{@link module:camera.CameraOptions} in effect.
+ * @param {string} imageData - Base64 encoding of the image data, _or_ the image file URI, depending on [`cameraOptions`]{@link module:camera.CameraOptions} in effect. An `Array` of them when `renditions` are given.
  * @example
  * // Show image
  * //
@@ -75,8 +75,36 @@ for (var key in Camera) {
  * @property {Boolean} [saveToPhotoAlbum] - Save the image to the photo album on the device after capture.
  * @property {module:CameraPopoverOptions} [popoverOptions] - iOS-only options that specify popover location in iPad.
  * @property {module:Camera.Direction} [cameraDirection=BACK] - Choose the camera to use (front- or back-facing).
+ * @property {Boolean} [chunkedDataUrl=false] - Android only. With `DATA_URL`, pass the image to the success callback as a `Blob` instead of a Base64-encoded `String`. The image is sent over in chunks of at most `CameraDataUrlChunkSize` bytes, so no single bridge message or JavaScript string holds the whole image. cordova-android still Base64-encodes each chunk in transit.
+ * @property {Boolean} [losslessOrientation=false] - Android only. With `correctOrientation`, `FILE_URI` and no resizing or recompression, return the JPEG unchanged and leave the orientation to its EXIF tag instead of rotating the pixels.
+ * @property {Array.<Object>} [renditions] - Android only. Output several sizes of the picture from a single decode, for example a full size copy, a preview and a thumbnail. Each entry takes `targetWidth`, `targetHeight`, and optionally `quality` and `encodingType`, which default to those of the call. The success callback then gets an `Array` with a file URI, or a Base64-encoded `String` with `DATA_URL`, for every entry in the same order. `chunkedDataUrl` is ignored.
+ * @property {Object} [cropRect] - Android only. Crop the picture in the plugin instead of with the crop activity used by `allowEdit`, which it replaces. `x`, `y`, `width` and `height` are fractions between 0 and 1 of the size of the upright picture, so `{x: 0.25, y: 0.25, width: 0.5, height: 0.5}` keeps the middle. Only the cropped part of the picture is decoded. `targetWidth` and `targetHeight` then apply to the crop.
+ * @property {Boolean} [previewFirst=false] - Android only. Send the thumbnail embedded in the EXIF data of a JPEG to the success callback first, before the picture is processed, as an `Object` with the Base64-encoded JPEG in `preview` and the clockwise rotation it still needs in `orientation`. The processed picture follows in a second call. Nothing is sent ahead if the picture has no embedded thumbnail.
+ * @property {Boolean} [thumbnailOnly=false] - Android only. Return the thumbnail embedded in the EXIF data of a JPEG, always as a JPEG, instead of processing the picture. `targetWidth`, `targetHeight`, `cropRect` and `renditions` are ignored, and `chunkedDataUrl` returns the thumbnail as a `Blob`. The picture is processed as usual if it has no embedded thumbnail.
+ * @property {Boolean} [saveProcessedToPhotoAlbum=false] - Android only. With `saveToPhotoAlbum` and `FILE_URI`, save the resized or recompressed picture to the album instead of the original, writing both copies in a single compression pass. Only on Android 10 and later; when the picture is returned unchanged the original is saved as before.
  */
 
+/**
+ * Wraps a success callback so that an image sent back as a series of binary chunks is
+ * assembled into a single `Blob` before it is passed on. Results that are not chunked, for
+ * instance on platforms without chunked delivery, are passed on unchanged.
+ * @private
+ */
+function collectChunks (successCallback) {
+    var chunks = [];
+    return function (result) {
+        if (result instanceof ArrayBuffer) {
+            chunks.push(result);
+        } else if (result && typeof result === 'object' && typeof result.size === 'number') {
+            var blob = new Blob(chunks, { type: result.type });
+            chunks = [];
+            successCallback(blob);
+        } else {
+            successCallback(result);
+        }
+    };
+}
+
 /**
  * @description Takes a photo using the camera, or retrieves a photo from the device's
  * image gallery.  The image is passed to the success callback as a
@@ -134,11 +162,61 @@ for (var key in Camera) {
 cameraExport.getPicture = function (successCallback, errorCallback, options) {
     argscheck.checkArgs('fFO', 'Camera.getPicture', arguments);
     options = options || {};
+    var args = toArgs(options, Camera.PictureSourceType.CAMERA);
+
+    var onSuccess = successCallback;
+    if (options.chunkedDataUrl && args[1] === Camera.DestinationType.DATA_URL) {
+        onSuccess = collectChunks(successCallback);
+    }
+
+    exec(onSuccess, errorCallback, 'Camera', 'takePicture', args);
+    // XXX: commented out
+    // return new CameraPopoverHandle();
+};
+
+/**
+ * Callback function that provides one of the images picked with
+ * [`camera.getPictures`]{@link module:camera.getPictures}.
+ * @callback module:camera.onPicturesSuccess
+ * @param {Object} result
+ * @param {number} result.index - The position of the image in the selection.
+ * @param {number} result.count - The number of images selected.
+ * @param {string} [result.data] - The image, in the same form [`camera.getPicture`]{@link module:camera.getPicture} returns it.
+ * @param {string} [result.error] - Why the image could not be processed, set instead of `data`.
+ */
+
+/**
+ * @description Lets the user pick several images from the device's image gallery at once.
+ * The images are scaled, corrected and compressed in parallel as set by the
+ * [`cameraOptions`]{@link module:camera.CameraOptions}, and the success callback is called
+ * once for every image as soon as it is done, which is not necessarily in the order of the
+ * selection. `chunkedDataUrl` is not supported. The error callback is only called when the
+ * selection itself fails, for example when the user cancels it.
+ *
+ * __Supported Platforms__
+ *
+ * - Android
+ *
+ * @example
+ * navigator.camera.getPictures(onPicture, cameraError, { sourceType: Camera.PictureSourceType.PHOTOLIBRARY });
+ * @param {module:camera.onPicturesSuccess} successCallback
+ * @param {module:camera.onError} errorCallback
+ * @param {module:camera.CameraOptions} options CameraOptions
+ */
+cameraExport.getPictures = function (successCallback, errorCallback, options) {
+    argscheck.checkArgs('fFO', 'Camera.getPictures', arguments);
+    options = options || {};
+
+    exec(successCallback, errorCallback, 'Camera', 'getPictures', toArgs(options, Camera.PictureSourceType.PHOTOLIBRARY));
+};
+
+// Turns the CameraOptions into the positional arguments the native side expects
+function toArgs (options, defaultSourceType) {
     var getValue = argscheck.getValue;
 
     var quality = getValue(options.quality, 50);
     var destinationType = getValue(options.destinationType, Camera.DestinationType.FILE_URI);
-    var sourceType = getValue(options.sourceType, Camera.PictureSourceType.CAMERA);
+    var sourceType = getValue(options.sourceType, defaultSourceType);
     var targetWidth = getValue(options.targetWidth, -1);
     var targetHeight = getValue(options.targetHeight, -1);
     var encodingType = getValue(options.encodingType, Camera.EncodingType.JPEG);
@@ -148,13 +226,48 @@ cameraExport.getPicture = function (successCallback, errorCallback, options) {
     var saveToPhotoAlbum = !!options.saveToPhotoAlbum;
     var popoverOptions = getValue(options.popoverOptions, null);
     var cameraDirection = getValue(options.cameraDirection, Camera.Direction.BACK);
+    var chunkedDataUrl = !!options.chunkedDataUrl;
+    var losslessOrientation = !!options.losslessOrientation;
+    var saveProcessedToPhotoAlbum = !!options.saveProcessedToPhotoAlbum;
+    var renditions = getValue(options.renditions, null);
+    var previewFirst = !!options.previewFirst;
+    var thumbnailOnly = !!options.thumbnailOnly;
+    var cropRect = getValue(options.cropRect, null);
 
-    var args = [quality, destinationType, sourceType, targetWidth, targetHeight, encodingType,
-        mediaType, allowEdit, correctOrientation, saveToPhotoAlbum, popoverOptions, cameraDirection];
+    return [quality, destinationType, sourceType, targetWidth, targetHeight, encodingType,
+        mediaType, allowEdit, correctOrientation, saveToPhotoAlbum, popoverOptions, cameraDirection,
+        chunkedDataUrl, losslessOrientation, saveProcessedToPhotoAlbum, renditions,
+        previewFirst, thumbnailOnly, cropRect];
+}
 
-    exec(successCallback, errorCallback, 'Camera', 'takePicture', args);
-    // XXX: commented out
-    // return new CameraPopoverHandle();
+/**
+ * Callback function that provides the counters of the native caches.
+ * @callback module:camera.onCacheStatsSuccess
+ * @param {Object} stats
+ * @param {Object} stats.metadataCache - The metadata of picked images, remembered by URI. `size` and `maxSize` count images.
+ * @param {Object} stats.bitmapPool - The bitmaps reused from one picture to the next. `size` and `maxSize` count bytes.
+ */
+
+/**
+ * Returns the hit, miss and eviction counts of the caches used while processing images, along
+ * with their current and maximum sizes. Useful to check that picking the same images again
+ * is served from the caches.
+ *
+ * __Supported Platforms__
+ *
+ * - Android
+ *
+ * @example
+ * navigator.camera.getCacheStats(function (stats) {
+ *     var m = stats.metadataCache;
+ *     console.log("Metadata hit rate: " + m.hits / (m.hits + m.misses));
+ * }, onFail);
+ * @param {module:camera.onCacheStatsSuccess} successCallback
+ * @param {module:camera.onError} errorCallback
+ */
+cameraExport.getCacheStats = function (successCallback, errorCallback) {
+    argscheck.checkArgs('fF', 'Camera.getCacheStats', arguments);
+    exec(successCallback, errorCallback, 'Camera', 'getCacheStats', []);
 };
 
 /**
@@ -42,7 +42,13 @@ module.exports = {
         /** Return JPEG encoded image */
         JPEG: 0,
         /** Return PNG encoded image */
-        PNG: 1
+        PNG: 1,
+        /** Return lossy WebP encoded image (Android only) */
+        WEBP: 2,
+        /** Return lossless WebP encoded image (Android only) */
+        WEBP_LOSSLESS: 3,
+        /** Return HEIF encoded image (Android only, FILE_URI only, JPEG otherwise) */
+        HEIF: 4
     },
     /**
      * @enum {number}